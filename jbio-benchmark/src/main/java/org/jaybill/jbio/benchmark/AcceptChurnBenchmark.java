@@ -0,0 +1,66 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection churn: each operation connects, sends 1 byte, waits for the echo and closes, so the score is accepts/s. <br/>
+ * The clients close with SO_LINGER 0, so the loopback ports are not used up by TIME_WAIT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class AcceptChurnBenchmark {
+
+    private static final int PORT = 19092;
+
+    @Param({"1", "16"})
+    public int maxAcceptCountPerLoop;
+
+    private JBIOServer server;
+
+    @Setup
+    public void setup() {
+        // every trial runs in its own fork, so it is ok to change the default template
+        var bossConfig = NioChannelConfigTemplate.DEFAULT;
+        bossConfig.setMaxAcceptCountPerLoop(maxAcceptCountPerLoop);
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var in = (ByteBuffer) o;
+                var out = ByteBuffer.allocate(in.remaining());
+                out.put(in).flip();
+                ctx.channel().pipeline().fireChannelWriteAndFlush(out);
+            }
+        };
+        server = JBIOServer.newInstance()
+                .config(bossConfig, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 2)
+                .initializer(null, ch -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", PORT, 1024).join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.closeAll();
+    }
+
+    @Benchmark
+    public int connect() throws Exception {
+        try (var socket = new Socket()) {
+            socket.setSoLinger(true, 0);
+            socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+            socket.getOutputStream().write(1);
+            return socket.getInputStream().read();
+        }
+    }
+}
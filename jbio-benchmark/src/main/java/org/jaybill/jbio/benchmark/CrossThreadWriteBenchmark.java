@@ -0,0 +1,77 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 16 application threads calling writeAndFlush on one connection, outside the eventloop. <br/>
+ * The client drains the socket in a background thread, the score is bounded by how fast the eventloop
+ * takes the writes over and flushes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class CrossThreadWriteBenchmark {
+
+    private static final int PORT = 19091;
+    private static final byte[] MSG = new byte[64];
+
+    private JBIOServer server;
+    private NioChannel channel;
+    private Socket socket;
+
+    @Setup
+    public void setup() throws Exception {
+        var channelFuture = new CompletableFuture<NioChannel>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRegistered(ChannelHandlerContext ctx) {
+                channelFuture.complete(ctx.channel());
+                ctx.fireChannelRegistered();
+            }
+        };
+        var eventLoopConfig = new NioEventLoopConfig();
+        eventLoopConfig.setRejectedTaskHandler(RejectedTaskHandlers.BLOCK);
+        server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1, eventLoopConfig)
+                .initializer(null, ch -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", PORT).join();
+
+        socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+        var drainer = new Thread(() -> {
+            var buf = new byte[64 * 1024];
+            try (var in = socket.getInputStream()) {
+                while (in.read(buf) >= 0) {
+                    // drop
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        drainer.setDaemon(true);
+        drainer.start();
+        channel = channelFuture.get(3, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socket.close();
+        server.closeAll();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void writeAndFlush_16() {
+        channel.pipeline().fireChannelWriteAndFlush(ByteBuffer.wrap(MSG));
+    }
+}
@@ -0,0 +1,48 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.EventLoop;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The benchmark thread acts as the eventloop thread.
+ */
+class CurrentThreadEventLoop implements EventLoop {
+
+    @Override
+    public boolean inEventLoop() {
+        return true;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submitTask(Callable<T> c) {
+        var future = new CompletableFuture<T>();
+        try {
+            future.complete(c.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    public void execute(Runnable r) {
+        r.run();
+    }
+
+    @Override
+    public CompletableFuture<?> scheduleTask(Runnable r, int delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<?> scheduleAtFixedRate(Runnable r, int initialDelay, int period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        return CompletableFuture.completedFuture(null);
+    }
+}
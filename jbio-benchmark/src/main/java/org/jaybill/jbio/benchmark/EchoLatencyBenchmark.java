@@ -0,0 +1,83 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of a 1KB echo over loopback, with and without {@link WriteBehavior#isWriteThrough()}. <br/>
+ * The client is a blocking socket which sends a message and waits for the echo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class EchoLatencyBenchmark {
+
+    private static final int PORT = 19090;
+
+    @Param({"false", "true"})
+    public boolean writeThrough;
+
+    @Param({"1024"})
+    public int size;
+
+    private JBIOServer server;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private byte[] msg;
+    private byte[] echo;
+
+    @Setup
+    public void setup() throws Exception {
+        // every trial runs in its own fork, so it is ok to change the default template
+        var socketChannelConfig = NioSocketChannelConfigTemplate.DEFAULT;
+        socketChannelConfig.setWriteThrough(writeThrough);
+        socketChannelConfig.getOptions().put(SocketOption.TCP_NODELAY, true);
+        var allocator = new PooledByteBufferAllocator();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var in = (ByteBuffer) o;
+                var out = allocator.allocateRefCounted(in.remaining());
+                out.buffer().put(in).flip();
+                ctx.channel().pipeline().fireChannelWriteAndFlush(out);
+            }
+        };
+        server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, socketChannelConfig)
+                .eventLoop(1, 1)
+                .initializer(null, ch -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", PORT).join();
+
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+        out = socket.getOutputStream();
+        in = socket.getInputStream();
+        msg = new byte[size];
+        echo = new byte[size];
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socket.close();
+        server.closeAll();
+    }
+
+    @Benchmark
+    public byte[] echo() throws Exception {
+        out.write(msg);
+        in.readNBytes(echo, 0, size);
+        return echo;
+    }
+}
@@ -0,0 +1,87 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.jaybill.jbio.core.codec.ByteToMessageDecoder;
+import org.jaybill.jbio.core.codec.DelimiterBasedFrameDecoder;
+import org.jaybill.jbio.core.codec.LengthFieldBasedFrameDecoder;
+import org.jaybill.jbio.core.codec.LineBasedFrameDecoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode 1MB of frames, which is read by 2KB like the socket does, so the frames larger than 2KB are cumulated. <br/>
+ * The score is MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class FrameDecoderBenchmark {
+
+    private static final int STREAM_SIZE = 1024 * 1024;
+    private static final int READ_SIZE = 2048;
+
+    @Param({"64", "1024", "16384"})
+    private int frameSize;
+
+    @Param({"LENGTH_FIELD", "LINE", "DELIMITER"})
+    private String decoder;
+
+    @Param({"MERGE", "COMPOSITE"})
+    private ByteToMessageDecoder.Cumulation cumulation;
+
+    private ChannelPipeline pipeline;
+    private byte[] stream;
+    private ByteBuffer readBuf;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        ByteToMessageDecoder handler = switch (decoder) {
+            case "LENGTH_FIELD" -> new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4);
+            case "LINE" -> new LineBasedFrameDecoder(Integer.MAX_VALUE - 1);
+            default -> new DelimiterBasedFrameDecoder(Integer.MAX_VALUE / 2, new byte[] {'\r', '\n'});
+        };
+        handler.setCumulation(cumulation);
+        handler.setAllocator(new PooledByteBufferAllocator());
+        pipeline = new DefaultChannelPipeline(
+                new DefaultChannelDuplexHandler(), new TailHandler(), null, new CurrentThreadEventLoop());
+        pipeline.addLast(handler);
+
+        var content = new byte[frameSize];
+        Arrays.fill(content, (byte) 'a');
+        var buf = ByteBuffer.allocate(STREAM_SIZE + frameSize + 4);
+        while (buf.position() < STREAM_SIZE) {
+            switch (decoder) {
+                case "LENGTH_FIELD" -> buf.putInt(frameSize).put(content);
+                case "LINE" -> buf.put(content).put((byte) '\n');
+                default -> buf.put(content).put((byte) '\r').put((byte) '\n');
+            }
+        }
+        stream = Arrays.copyOf(buf.array(), buf.position());
+        readBuf = ByteBuffer.allocate(READ_SIZE);
+    }
+
+    @Benchmark
+    public void decode() {
+        for (int i = 0; i < stream.length; i += READ_SIZE) {
+            readBuf.clear();
+            readBuf.put(stream, i, Math.min(READ_SIZE, stream.length - i)).flip();
+            pipeline.fireChannelRead(readBuf);
+        }
+    }
+
+    private class TailHandler extends DefaultChannelDuplexHandler {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object o) {
+            blackhole.consume(o);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.jaybill.jbio.core.codec.MessageToByteEncoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write 16 messages and flush them, the messages are encoded by: <br/>
+ * perMessage: one buffer for each message, like the ad hoc encoders do; <br/>
+ * encoder: {@link MessageToByteEncoder}, the small messages are batched into one buffer. <br/>
+ * Run with {@code -prof gc} for the allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class MessageEncoderBenchmark {
+
+    private static final int MESSAGES = 16;
+
+    @Param({"32", "256", "4096"})
+    private int payloadSize;
+
+    private ChannelPipeline perMessage;
+    private ChannelPipeline encoder;
+    private Message msg;
+    private Blackhole blackhole;
+
+    private record Message(int id, byte[] payload) {}
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.msg = new Message(1, new byte[payloadSize]);
+        var allocator = new PooledByteBufferAllocator();
+
+        perMessage = this.newPipeline();
+        perMessage.addLast(new DefaultChannelDuplexHandler() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object o) {
+                var m = (Message) o;
+                var buf = allocator.allocateRefCounted(8 + m.payload().length);
+                buf.buffer().putInt(m.id()).putInt(m.payload().length).put(m.payload()).flip();
+                ctx.fireChannelWrite(buf);
+            }
+        });
+
+        var handler = new MessageToByteEncoder<Message>(Message.class) {
+            @Override
+            protected void encode(ChannelHandlerContext ctx, Message m, ByteBuffer out) {
+                out.putInt(m.id()).putInt(m.payload().length).put(m.payload());
+            }
+        };
+        handler.setAllocator(allocator);
+        encoder = this.newPipeline();
+        encoder.addLast(handler);
+    }
+
+    private ChannelPipeline newPipeline() {
+        return new DefaultChannelPipeline(new HeadHandler(), new DefaultChannelDuplexHandler(), null,
+                new CurrentThreadEventLoop());
+    }
+
+    @Benchmark
+    public void perMessage() {
+        for (int i = 0; i < MESSAGES; i++) {
+            perMessage.fireChannelWrite(msg);
+        }
+        perMessage.fireChannelFlush();
+    }
+
+    @Benchmark
+    public void encoder() {
+        for (int i = 0; i < MESSAGES; i++) {
+            encoder.fireChannelWrite(msg);
+        }
+        encoder.fireChannelFlush();
+    }
+
+    // consume the buffers like the SendBuffer does
+    private class HeadHandler extends DefaultChannelDuplexHandler {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object o) {
+            blackhole.consume(ReleaseUtil.buffer(o));
+            ReleaseUtil.release(o);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {}
+    }
+}
@@ -0,0 +1,63 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.NioEventLoop;
+import org.jaybill.jbio.core.NioEventLoopConfig;
+import org.jaybill.jbio.core.RejectedTaskHandlers;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-thread submit throughput of {@link NioEventLoop}. <br/>
+ * The producers are paced by {@link RejectedTaskHandlers#BLOCK}, so the score is bounded by how fast the eventloop
+ * drains its task queue, including the cost of waking it up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class NioEventLoopSubmitBenchmark {
+
+    private static final Callable<Object> NOOP = () -> null;
+
+    private NioEventLoop eventLoop;
+
+    @Setup
+    public void setup() throws Exception {
+        var config = new NioEventLoopConfig();
+        config.setRejectedTaskHandler(RejectedTaskHandlers.BLOCK);
+        eventLoop = new NioEventLoop(SelectorProvider.provider(), "benchmark-", config);
+        eventLoop.submitTask(NOOP).get();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        eventLoop.close().get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CompletableFuture<Object> submit_1() {
+        return eventLoop.submitTask(NOOP);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CompletableFuture<Object> submit_4() {
+        return eventLoop.submitTask(NOOP);
+    }
+
+    /**
+     * Submit and wait, the eventloop is idle in select() on every submit.
+     */
+    @Benchmark
+    @Threads(1)
+    public Object submitAndWait() throws Exception {
+        return eventLoop.submitTask(NOOP).get();
+    }
+}
@@ -0,0 +1,47 @@
+package org.jaybill.jbio.benchmark;
+
+import org.jaybill.jbio.core.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fire channelRead through a pipeline of 5 handlers in the eventloop. <br/>
+ * Run with {@code -prof gc} and look at {@code gc.alloc.rate.norm} for the allocation per read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class PipelineFireBenchmark {
+
+    private static final Object MSG = new Object();
+
+    private ChannelPipeline pipeline;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        var eventLoop = new CurrentThreadEventLoop();
+        pipeline = new DefaultChannelPipeline(new DefaultChannelDuplexHandler(), new TailHandler(), null, eventLoop);
+        for (int i = 0; i < 5; i++) {
+            pipeline.addLast(new DefaultChannelDuplexHandler());
+        }
+    }
+
+    @Benchmark
+    public void fireChannelRead() {
+        pipeline.fireChannelRead(MSG);
+    }
+
+    private class TailHandler extends DefaultChannelDuplexHandler {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object o) {
+            blackhole.consume(o);
+        }
+    }
+}
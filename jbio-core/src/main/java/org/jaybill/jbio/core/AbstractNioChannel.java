@@ -1,5 +1,11 @@
 package org.jaybill.jbio.core;
 
-public abstract class AbstractNioChannel {
+import java.nio.channels.SelectionKey;
+
+public abstract class AbstractNioChannel extends DefaultAttributeMap {
+
+    // it may be replaced by the eventloop when the selector is rebuilt
+    SelectionKey selectionKey;
+
     abstract void ioEvent();
 }
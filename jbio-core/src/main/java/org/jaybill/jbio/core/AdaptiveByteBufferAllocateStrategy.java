@@ -0,0 +1,82 @@
+package org.jaybill.jbio.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocate the read buffer by the size of the previous reads. <br/>
+ * The size is a power of 2 between the min and the max size, it grows fast (x4) once a read fills up the buffer,
+ * and shrinks slowly (/2) after two reads in a row fit in the half of it. <br/>
+ * Each read gets a new {@link RefCountedByteBuffer} from the allocator and releases it after the pipeline handled it,
+ * so it should be used with a pooled allocator, e.g. {@link PooledByteBufferAllocator}.
+ */
+public class AdaptiveByteBufferAllocateStrategy implements ByteBufferAllocateStrategy {
+
+    public static final int DEFAULT_MIN_SIZE = 64;
+    public static final int DEFAULT_INITIAL_SIZE = 2048;
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    private final ByteBufferAllocator allocator;
+    private final int minShift;
+    private final int maxShift;
+    private int shift;
+    private boolean decreaseNow;
+    // the buffer of the read being handled
+    private RefCountedByteBuffer current;
+
+    public AdaptiveByteBufferAllocateStrategy(ByteBufferAllocator allocator) {
+        this(allocator, DEFAULT_MIN_SIZE, DEFAULT_INITIAL_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    public AdaptiveByteBufferAllocateStrategy(ByteBufferAllocator allocator, int minSize, int initialSize, int maxSize) {
+        if (minSize <= 0 || initialSize < minSize || maxSize < initialSize) {
+            throw new IllegalArgumentException("require 0 < minSize <= initialSize <= maxSize");
+        }
+        this.allocator = allocator;
+        this.minShift = ceilLog2(minSize);
+        this.maxShift = ceilLog2(maxSize);
+        this.shift = ceilLog2(initialSize);
+    }
+
+    @Override
+    public ByteBuffer allocate() {
+        current = allocator.allocateRefCounted(this.nextSize());
+        return current.buffer();
+    }
+
+    @Override
+    public void release(ByteBuffer buf) {
+        if (current != null && current.buffer() == buf) {
+            var rc = current;
+            current = null;
+            rc.release();
+        }
+    }
+
+    @Override
+    public void record(int bytesRead) {
+        if (bytesRead >= 1 << shift) {
+            shift = Math.min(shift + 2, maxShift);
+            decreaseNow = false;
+        } else if (shift > minShift && bytesRead <= 1 << (shift - 1)) {
+            if (decreaseNow) {
+                shift--;
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else {
+            decreaseNow = false;
+        }
+    }
+
+    /**
+     * the size of the next read buffer
+     */
+    public int nextSize() {
+        return 1 << shift;
+    }
+
+    private static int ceilLog2(int n) {
+        return n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+}
@@ -0,0 +1,48 @@
+package org.jaybill.jbio.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The typed key of an attribute, see {@link NioChannel#attr(AttributeKey)}. <br/>
+ * Each name has one key with a global index, the attributes are stored in an array by the index,
+ * so the keys should be constants, e.g. {@code static final AttributeKey<Session> SESSION = AttributeKey.valueOf("session")}.
+ */
+public final class AttributeKey<T> {
+
+    private static final ConcurrentMap<String, AttributeKey<?>> keys = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    private final String name;
+    final int index;
+
+    private AttributeKey(String name) {
+        this.name = name;
+        this.index = nextIndex.getAndIncrement();
+    }
+
+    /**
+     * @return the key of the name, it is created if absent
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> valueOf(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        var key = keys.get(name);
+        if (key == null) {
+            key = keys.computeIfAbsent(name, AttributeKey::new);
+        }
+        return (AttributeKey<T>) key;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeKey(" + name + ")";
+    }
+}
@@ -11,4 +11,15 @@ public interface ByteBufferAllocateStrategy {
      * allocate a ByteBuffer
      */
     ByteBuffer allocate();
+
+    /**
+     * Called once the buffer returned by {@link #allocate()} has been handled by the pipeline,
+     * so the strategy can release or reuse it, see {@link ChannelInboundHandler#channelRead}.
+     */
+    default void release(ByteBuffer buf) {}
+
+    /**
+     * Called after each read which got some bytes, so that the strategy can adjust the size of the next buffer.
+     */
+    default void record(int bytesRead) {}
 }
@@ -5,4 +5,17 @@ import java.nio.ByteBuffer;
 public interface ByteBufferAllocator {
 
     ByteBuffer allocate(int capacity);
+
+    /**
+     * Give the buffer back to the allocator, the buffer must not be used after that. <br/>
+     * It does nothing by default, the buffer is left to GC.
+     */
+    default void release(ByteBuffer buf) {}
+
+    /**
+     * allocate a buffer which is given back by {@link RefCountedByteBuffer#release()}
+     */
+    default RefCountedByteBuffer allocateRefCounted(int capacity) {
+        return new RefCountedByteBuffer(this.allocate(capacity), this);
+    }
 }
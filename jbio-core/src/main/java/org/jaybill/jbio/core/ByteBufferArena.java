@@ -0,0 +1,200 @@
+package org.jaybill.jbio.core;
+
+import org.jaybill.jbio.core.ex.IllegalReferenceCountException;
+import org.jctools.queues.MpmcArrayQueue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A pool of ByteBuffers shared by all {@link PooledByteBufferAllocator} of the same kind (heap or direct). <br/>
+ * The buffers are grouped into power of 2 size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE}.
+ * A buffer is sliced from a chunk and handed out as a {@link RefCountedByteBuffer} carrying its {@link Slot},
+ * so the last release gives the slot back to the pool without any lookup. Larger requests are not pooled. <br/>
+ * Each {@link NioEventLoop} has a small {@link Cache} per size class, so that an eventloop usually allocates and
+ * releases buffers without touching the shared queues. Other threads only use the shared queues, and the cache of
+ * an eventloop is given back to them when the eventloop is closed. <br/>
+ * A buffer never released is not taken back, its slot is reclaimed by GC with it.
+ */
+final class ByteBufferArena {
+
+    static final int MIN_SIZE = 64;
+    static final int MAX_SIZE = 64 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int SHARED_BYTES_PER_CLASS = 16 * 1024 * 1024;
+    private static final int CACHE_BYTES_PER_CLASS = 512 * 1024;
+
+    private final boolean direct;
+    private final MpmcArrayQueue<Slot>[] sharedQueues;
+    final ByteBufferArenaMetrics metrics = new ByteBufferArenaMetrics();
+
+    @SuppressWarnings("unchecked")
+    ByteBufferArena(boolean direct) {
+        this.direct = direct;
+        this.sharedQueues = new MpmcArrayQueue[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            sharedQueues[i] = new MpmcArrayQueue<>(Math.min(SHARED_BYTES_PER_CLASS / sizeOf(i), 16384));
+        }
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @param allocator the allocator of the returned buffer
+     */
+    RefCountedByteBuffer allocate(int capacity, ByteBufferAllocator allocator) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (capacity > MAX_SIZE) {
+            metrics.hugeAllocations.increment();
+            var buf = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            return new RefCountedByteBuffer(buf, allocator);
+        }
+        int idx = sizeClass(capacity);
+        metrics.allocations.increment();
+        metrics.requestedBytes.add(capacity);
+        metrics.allocatedBytes.add(sizeOf(idx));
+
+        var cache = this.cache();
+        Slot slot = cache != null ? cache.poll(idx) : null;
+        if (slot != null) {
+            metrics.cacheHits.increment();
+        } else if ((slot = sharedQueues[idx].poll()) == null) {
+            slot = this.newChunk(idx, cache);
+        }
+        slot.free = 0;
+        var buf = slot.buf;
+        buf.clear().limit(capacity);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        return new RefCountedByteBuffer(buf, allocator, slot);
+    }
+
+    /**
+     * Give the slot back to the pool, it is called by the last {@link RefCountedByteBuffer#release()}.
+     */
+    void release(Slot slot) {
+        if (!Slot.freeUpdater.compareAndSet(slot, 0, 1)) {
+            throw new IllegalReferenceCountException("the buffer has been released");
+        }
+        metrics.releasedBytes.add(slot.buf.capacity());
+        var cache = this.cache();
+        if (cache == null || !cache.offer(slot)) {
+            // dropped if the pool is full, it is reclaimed by GC
+            sharedQueues[slot.sizeClass].offer(slot);
+        }
+    }
+
+    // the cache of the current eventloop, null for other threads
+    private Cache cache() {
+        var loop = NioEventLoop.current();
+        return loop != null ? loop.arenaCache(this) : null;
+    }
+
+    Cache newCache() {
+        return new Cache(this);
+    }
+
+    // slice a chunk into buffers of the size class, return one and put the others into the pool
+    private Slot newChunk(int idx, Cache cache) {
+        int size = sizeOf(idx);
+        var chunk = direct ? ByteBuffer.allocateDirect(CHUNK_SIZE) : ByteBuffer.allocate(CHUNK_SIZE);
+        metrics.chunkBytes.add(CHUNK_SIZE);
+        var queue = sharedQueues[idx];
+        for (int pos = size; pos < CHUNK_SIZE; pos += size) {
+            var slot = new Slot(this, chunk.limit(pos + size).position(pos).slice(), idx);
+            slot.free = 1;
+            if (cache == null || !cache.offer(slot)) {
+                queue.offer(slot);
+            }
+        }
+        return new Slot(this, chunk.limit(size).position(0).slice(), idx);
+    }
+
+    static int sizeClass(int capacity) {
+        if (capacity <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    static int sizeOf(int sizeClass) {
+        return MIN_SIZE << sizeClass;
+    }
+
+    /**
+     * A buffer sliced by the arena.
+     */
+    static final class Slot {
+        static final AtomicIntegerFieldUpdater<Slot> freeUpdater = AtomicIntegerFieldUpdater.newUpdater(
+                Slot.class, "free");
+        final ByteBufferArena arena;
+        final ByteBuffer buf;
+        final int sizeClass;
+        // 1 if it is in the pool
+        volatile int free;
+
+        Slot(ByteBufferArena arena, ByteBuffer buf, int sizeClass) {
+            this.arena = arena;
+            this.buf = buf;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    /**
+     * The slots cached by one eventloop, only accessed by the eventloop thread.
+     */
+    static final class Cache {
+        private final ByteBufferArena arena;
+        private final Slot[][] stacks = new Slot[SIZE_CLASSES][];
+        private final int[] sizes = new int[SIZE_CLASSES];
+
+        private Cache(ByteBufferArena arena) {
+            this.arena = arena;
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                stacks[i] = new Slot[Math.max(8, Math.min(512, CACHE_BYTES_PER_CLASS / sizeOf(i)))];
+            }
+        }
+
+        Slot poll(int idx) {
+            if (sizes[idx] == 0) {
+                return null;
+            }
+            var stack = stacks[idx];
+            var slot = stack[--sizes[idx]];
+            stack[sizes[idx]] = null;
+            return slot;
+        }
+
+        boolean offer(Slot slot) {
+            if (slot.arena != arena) {
+                return false;
+            }
+            var stack = stacks[slot.sizeClass];
+            int size = sizes[slot.sizeClass];
+            if (size == stack.length) {
+                return false;
+            }
+            stack[size] = slot;
+            sizes[slot.sizeClass] = size + 1;
+            return true;
+        }
+
+        /**
+         * Give the cached slots back to the shared queues, it is called when the eventloop is closed.
+         */
+        void free() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                Slot slot;
+                while ((slot = this.poll(i)) != null) {
+                    arena.sharedQueues[i].offer(slot);
+                }
+            }
+        }
+    }
+}
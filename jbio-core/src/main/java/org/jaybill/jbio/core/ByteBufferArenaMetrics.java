@@ -0,0 +1,63 @@
+package org.jaybill.jbio.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the pool behind {@link PooledByteBufferAllocator}, they can be read from any thread.
+ */
+public class ByteBufferArenaMetrics {
+    final LongAdder allocations = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder hugeAllocations = new LongAdder();
+    final LongAdder requestedBytes = new LongAdder();
+    final LongAdder allocatedBytes = new LongAdder();
+    final LongAdder releasedBytes = new LongAdder();
+    final LongAdder chunkBytes = new LongAdder();
+
+    ByteBufferArenaMetrics() {}
+
+    /**
+     * The number of pooled allocations, excluding the huge ones.
+     */
+    public long allocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * The ratio of pooled allocations served by the cache of the eventloop.
+     */
+    public double cacheHitRate() {
+        long n = allocations.sum();
+        return n == 0 ? 0 : (double) cacheHits.sum() / n;
+    }
+
+    /**
+     * The number of allocations larger than the max size class, they are not pooled.
+     */
+    public long hugeAllocations() {
+        return hugeAllocations.sum();
+    }
+
+    /**
+     * The bytes reserved by the pool for all chunks.
+     */
+    public long chunkBytes() {
+        return chunkBytes.sum();
+    }
+
+    /**
+     * The bytes of the pooled buffers which have been allocated but not released yet.
+     */
+    public long usedBytes() {
+        return allocatedBytes.sum() - releasedBytes.sum();
+    }
+
+    /**
+     * The ratio of the bytes wasted by rounding up the requests to size classes, e.g. 0.25 means a quarter of the
+     * allocated bytes are never asked for.
+     */
+    public double fragmentation() {
+        long allocated = allocatedBytes.sum();
+        return allocated == 0 ? 0 : 1 - (double) requestedBytes.sum() / allocated;
+    }
+}
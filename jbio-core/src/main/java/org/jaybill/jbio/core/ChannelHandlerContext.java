@@ -8,6 +8,24 @@ public interface ChannelHandlerContext extends ChannelHandlerInvoker {
 
     EventLoop eventloop();
 
+    /**
+     * The promise of the write being handled, or null if the write has no promise. <br/>
+     * A handler which writes the message later, e.g. after other messages, should keep the promise
+     * and pass it to {@link #fireChannelWrite(Object, WritePromise)}.
+     */
+    WritePromise writePromise();
+
+    /**
+     * The attributes of the handler in this channel, see {@link AttributeKey}.
+     */
+    <T> T attr(AttributeKey<T> key);
+
+    <T> void attr(AttributeKey<T> key, T v);
+
+    /**
+     * The attributes of the handler by plain names, kept apart from the {@link AttributeKey} ones,
+     * so a name never takes a global key. Set null to remove it.
+     */
     void attr(String k, Object v);
 
     Object attr(String k);
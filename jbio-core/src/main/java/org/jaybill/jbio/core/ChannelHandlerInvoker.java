@@ -7,6 +7,7 @@ public interface ChannelHandlerInvoker {
     void fireChannelRegistered();
     void fireChannelConnected();
     void fireChannelRead(Object o);
+    void fireChannelReadComplete();
     void fireChannelClosed();
     void fireChannelDeregistered();
     void fireChannelException(Throwable t);
@@ -19,4 +20,12 @@ public interface ChannelHandlerInvoker {
     void fireChannelWrite(Object o);
     void fireChannelFlush();
     void fireChannelWriteAndFlush(Object buf);
+
+    /**
+     * Write with a promise, which is completed once the message is drained from the SendBuffer. <br/>
+     * The promise is passed along implicitly while the outbound handlers forward the write in the eventloop,
+     * see {@link ChannelHandlerContext#writePromise()}. A null promise means no promise.
+     */
+    void fireChannelWrite(Object o, WritePromise promise);
+    void fireChannelWriteAndFlush(Object o, WritePromise promise);
 }
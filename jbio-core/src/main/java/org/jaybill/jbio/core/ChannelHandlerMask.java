@@ -0,0 +1,85 @@
+package org.jaybill.jbio.core;
+
+import java.lang.reflect.Method;
+
+/**
+ * The bitmask of the events a handler really handles, one bit per event method. <br/>
+ * A method inherited from {@link DefaultChannelDuplexHandler}, or a default method of {@link ChannelInboundHandler},
+ * only forwards the event to the next handler,
+ * so its bit is not set, and the pipeline skips the handler for that event. <br/>
+ * The mask is computed once per handler class.
+ */
+final class ChannelHandlerMask {
+
+    // inbound
+    static final int MASK_CHANNEL_INITIALIZED = 1;
+    static final int MASK_CHANNEL_BOUND = 1 << 1;
+    static final int MASK_CHANNEL_REGISTERED = 1 << 2;
+    static final int MASK_CHANNEL_CONNECTED = 1 << 3;
+    static final int MASK_CHANNEL_READ = 1 << 4;
+    static final int MASK_CHANNEL_CLOSED = 1 << 5;
+    static final int MASK_CHANNEL_DEREGISTERED = 1 << 6;
+    static final int MASK_CHANNEL_EXCEPTION = 1 << 7;
+    static final int MASK_CHANNEL_UN_WRITABLE = 1 << 8;
+    static final int MASK_CHANNEL_WRITABLE = 1 << 9;
+    static final int MASK_CHANNEL_SEND_BUFFER_FULL = 1 << 10;
+    static final int MASK_CHANNEL_READ_COMPLETE = 1 << 11;
+    // outbound
+    static final int MASK_CLOSE = 1 << 16;
+    static final int MASK_WRITE = 1 << 17;
+    static final int MASK_FLUSH = 1 << 18;
+    static final int MASK_WRITE_AND_FLUSH = 1 << 19;
+
+    private static final ClassValue<Integer> MASKS = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return compute(type);
+        }
+    };
+
+    private ChannelHandlerMask() {}
+
+    static int mask(Class<? extends ChannelHandler> clazz) {
+        return MASKS.get(clazz);
+    }
+
+    private static int compute(Class<?> clazz) {
+        int mask = 0;
+        if (ChannelInboundHandler.class.isAssignableFrom(clazz)) {
+            mask |= bit(clazz, MASK_CHANNEL_INITIALIZED, "channelInitialized");
+            mask |= bit(clazz, MASK_CHANNEL_BOUND, "channelBound");
+            mask |= bit(clazz, MASK_CHANNEL_REGISTERED, "channelRegistered");
+            mask |= bit(clazz, MASK_CHANNEL_CONNECTED, "channelConnected");
+            mask |= bit(clazz, MASK_CHANNEL_READ, "channelRead", Object.class);
+            mask |= bit(clazz, MASK_CHANNEL_CLOSED, "channelClosed");
+            mask |= bit(clazz, MASK_CHANNEL_DEREGISTERED, "channelDeregistered");
+            mask |= bit(clazz, MASK_CHANNEL_EXCEPTION, "channelException", Throwable.class);
+            mask |= bit(clazz, MASK_CHANNEL_UN_WRITABLE, "channelUnWritable");
+            mask |= bit(clazz, MASK_CHANNEL_WRITABLE, "channelWritable");
+            mask |= bit(clazz, MASK_CHANNEL_SEND_BUFFER_FULL, "channelSendBufferFull");
+            mask |= bit(clazz, MASK_CHANNEL_READ_COMPLETE, "channelReadComplete");
+        }
+        if (ChannelOutboundHandler.class.isAssignableFrom(clazz)) {
+            mask |= bit(clazz, MASK_CLOSE, "close");
+            mask |= bit(clazz, MASK_WRITE, "write", Object.class);
+            mask |= bit(clazz, MASK_FLUSH, "flush");
+            mask |= bit(clazz, MASK_WRITE_AND_FLUSH, "writeAndFlush", Object.class);
+        }
+        return mask;
+    }
+
+    private static int bit(Class<?> clazz, int bit, String name, Class<?>... extraParamTypes) {
+        var paramTypes = new Class<?>[extraParamTypes.length + 1];
+        paramTypes[0] = ChannelHandlerContext.class;
+        System.arraycopy(extraParamTypes, 0, paramTypes, 1, extraParamTypes.length);
+        try {
+            Method m = clazz.getMethod(name, paramTypes);
+            var declaringClass = m.getDeclaringClass();
+            return declaringClass == DefaultChannelDuplexHandler.class
+                    || declaringClass == ChannelInboundHandler.class ? 0 : bit;
+        } catch (NoSuchMethodException e) {
+            // should not happen, always handle the event if we don't know
+            return bit;
+        }
+    }
+}
@@ -32,8 +32,23 @@ public interface ChannelInboundHandler extends ChannelHandler {
      */
     void channelClosed(ChannelHandlerContext ctx);
 
+    /**
+     * It will be trigger once a message is read. <br/>
+     * A ByteBuffer read from the channel is only valid until this method returns, the read loop releases or reuses it
+     * after that, so copy the bytes if they must be kept, e.g. by a decoder cumulating a partial frame.
+     * A {@link RefCountedByteBuffer} fired by a handler must be released by the handler consuming it,
+     * or it is released once it reaches the tail of the pipeline.
+     */
     void channelRead(ChannelHandlerContext ctx, Object o);
 
+    /**
+     * It will be trigger once a read loop of the channel is done, after all the {@link #channelRead} of the loop. <br/>
+     * The handler could write the responses of the reads, and flush them all at once here.
+     */
+    default void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.fireChannelReadComplete();
+    }
+
     /**
      * It will be trigger once channel occur exception. <br/>
      * If the channel has never been active, then this method will not be triggered
@@ -1,7 +1,31 @@
 package org.jaybill.jbio.core;
 
+/**
+ * The handlers are identified by reference. <br/>
+ * All methods are thread-safe, and can be called while the channel is active.
+ */
 public interface ChannelPipeline extends ChannelHandlerInvoker {
 
+    ChannelPipeline addFirst(ChannelHandler handler);
     ChannelPipeline addLast(ChannelHandler handler);
+
+    /**
+     * @throws IllegalArgumentException if the base handler is not in the pipeline
+     */
+    ChannelPipeline addBefore(ChannelHandler baseHandler, ChannelHandler handler);
+
+    /**
+     * @throws IllegalArgumentException if the base handler is not in the pipeline
+     */
+    ChannelPipeline addAfter(ChannelHandler baseHandler, ChannelHandler handler);
+
+    /**
+     * @throws IllegalArgumentException if the old handler is not in the pipeline
+     */
+    ChannelPipeline replace(ChannelHandler oldHandler, ChannelHandler newHandler);
+
+    /**
+     * remove the handler, do nothing if it is not in the pipeline
+     */
     ChannelPipeline remove(ChannelHandler handler);
 }
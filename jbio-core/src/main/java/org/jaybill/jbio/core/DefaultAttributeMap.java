@@ -0,0 +1,41 @@
+package org.jaybill.jbio.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The attributes stored in an array by {@link AttributeKey} index, the array is created by the first attribute. <br/>
+ * Reading is a volatile read and an array access. Writing copies the array and swaps it by CAS,
+ * so the attributes can be written from any thread.
+ */
+public class DefaultAttributeMap {
+
+    private static final AtomicReferenceFieldUpdater<DefaultAttributeMap, Object[]> attrsUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultAttributeMap.class, Object[].class, "attrs");
+    private volatile Object[] attrs;
+
+    @SuppressWarnings("unchecked")
+    public <T> T attr(AttributeKey<T> key) {
+        var arr = attrs;
+        int i = key.index;
+        return arr != null && i < arr.length ? (T) arr[i] : null;
+    }
+
+    /**
+     * set the attribute, or remove it if the value is null
+     */
+    public <T> void attr(AttributeKey<T> key, T v) {
+        int i = key.index;
+        for (;;) {
+            var cur = attrs;
+            if (v == null && (cur == null || i >= cur.length || cur[i] == null)) {
+                return;
+            }
+            var arr = cur == null ? new Object[i + 1] : Arrays.copyOf(cur, Math.max(cur.length, i + 1));
+            arr[i] = v;
+            if (attrsUpdater.compareAndSet(this, cur, arr)) {
+                return;
+            }
+        }
+    }
+}
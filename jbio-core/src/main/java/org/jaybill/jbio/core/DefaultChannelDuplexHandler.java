@@ -52,6 +52,11 @@ public class DefaultChannelDuplexHandler implements ChannelInboundHandler, Chann
         ctx.fireChannelRead(o);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelException(ChannelHandlerContext ctx, Throwable t) {
         ctx.fireChannelException(t);
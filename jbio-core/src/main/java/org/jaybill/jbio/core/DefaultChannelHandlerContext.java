@@ -1,23 +1,42 @@
 package org.jaybill.jbio.core;
 
-import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static org.jaybill.jbio.core.ChannelHandlerMask.*;
 
-public class DefaultChannelHandlerContext implements ChannelHandlerContext {
+/**
+ * The node of {@link DefaultChannelPipeline}. <br/>
+ * In the eventloop, an event is passed to the next handler by a direct method call, without any allocation.
+ * Outside the eventloop, the event is handed over to the eventloop by {@link EventLoop#execute(Runnable)}. <br/>
+ * The handlers which don't handle the event are skipped according to {@link ChannelHandlerMask}.
+ */
+@Slf4j
+public class DefaultChannelHandlerContext extends DefaultAttributeMap implements ChannelHandlerContext {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DefaultChannelHandlerContext, ConcurrentHashMap> stringAttrsUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultChannelHandlerContext.class, ConcurrentHashMap.class, "stringAttrs");
     private final ChannelHandler handler;
     private final NioChannel channel;
     private final EventLoop eventLoop;
-    private final Map<String, Object> attrMap;
+    final int executionMask;
+    private final DefaultChannelPipeline pipeline;
 
-    DefaultChannelHandlerContext next;
-    DefaultChannelHandlerContext prev;
+    // The pipeline snapshot where this context was last found, and its index in it, only accessed in the eventloop.
+    // Once the context is removed, it keeps forwarding events along the last snapshot.
+    private DefaultChannelHandlerContext[] snapshot;
+    private int index;
+    // the attributes of the string API, created by the first one, so the names don't take global AttributeKey indexes
+    private volatile ConcurrentHashMap<String, Object> stringAttrs;
 
-    public DefaultChannelHandlerContext(ChannelHandler handler, NioChannel channel, EventLoop eventLoop) {
+    public DefaultChannelHandlerContext(DefaultChannelPipeline pipeline, ChannelHandler handler, NioChannel channel, EventLoop eventLoop) {
+        this.pipeline = pipeline;
         this.handler = handler;
         this.channel = channel;
         this.eventLoop = eventLoop;
-        this.attrMap = new ConcurrentHashMap<>();
+        this.executionMask = ChannelHandlerMask.mask(handler.getClass());
     }
 
     @Override
@@ -36,117 +55,448 @@ public class DefaultChannelHandlerContext implements ChannelHandlerContext {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void attr(String k, Object v) {
-        attrMap.put(k, v);
+        var attrs = stringAttrs;
+        if (v == null) {
+            if (attrs != null) {
+                attrs.remove(k);
+            }
+            return;
+        }
+        if (attrs == null) {
+            stringAttrsUpdater.compareAndSet(this, null, new ConcurrentHashMap<>(4));
+            attrs = stringAttrs;
+        }
+        attrs.put(k, v);
     }
 
     @Override
     public Object attr(String k) {
-        return attrMap.get(k);
+        var attrs = stringAttrs;
+        return attrs != null ? attrs.get(k) : null;
     }
 
     @Override
     public void fireChannelInitialized() {
-        this.doInvokeInbound(ChannelInboundHandler::channelInitialized);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_INITIALIZED);
+            if (ctx != null) {
+                ctx.invokeChannelInitialized();
+            }
+        } else {
+            this.execute(this::fireChannelInitialized);
+        }
     }
 
     @Override
     public void fireChannelBound() {
-        this.doInvokeInbound(ChannelInboundHandler::channelBound);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_BOUND);
+            if (ctx != null) {
+                ctx.invokeChannelBound();
+            }
+        } else {
+            this.execute(this::fireChannelBound);
+        }
     }
 
     @Override
     public void fireChannelRegistered() {
-        this.doInvokeInbound(ChannelInboundHandler::channelRegistered);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_REGISTERED);
+            if (ctx != null) {
+                ctx.invokeChannelRegistered();
+            }
+        } else {
+            this.execute(this::fireChannelRegistered);
+        }
     }
 
     @Override
     public void fireChannelConnected() {
-        this.doInvokeInbound(ChannelInboundHandler::channelConnected);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_CONNECTED);
+            if (ctx != null) {
+                ctx.invokeChannelConnected();
+            }
+        } else {
+            this.execute(this::fireChannelConnected);
+        }
     }
 
     @Override
     public void fireChannelRead(Object o) {
-        this.doInvokeInbound((handler, cur) -> handler.channelRead(cur, o));
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_READ);
+            if (ctx != null) {
+                ctx.invokeChannelRead(o);
+            }
+        } else {
+            this.execute(() -> this.fireChannelRead(o));
+        }
+    }
+
+    @Override
+    public void fireChannelReadComplete() {
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_READ_COMPLETE);
+            if (ctx != null) {
+                ctx.invokeChannelReadComplete();
+            }
+        } else {
+            this.execute(this::fireChannelReadComplete);
+        }
     }
 
     @Override
     public void fireChannelClosed() {
-        this.doInvokeInbound(ChannelInboundHandler::channelClosed);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_CLOSED);
+            if (ctx != null) {
+                ctx.invokeChannelClosed();
+            }
+        } else {
+            this.execute(this::fireChannelClosed);
+        }
     }
 
     @Override
     public void fireChannelDeregistered() {
-        this.doInvokeInbound(ChannelInboundHandler::channelDeregistered);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_DEREGISTERED);
+            if (ctx != null) {
+                ctx.invokeChannelDeregistered();
+            }
+        } else {
+            this.execute(this::fireChannelDeregistered);
+        }
     }
 
     @Override
     public void fireChannelException(Throwable t) {
-        this.doInvokeInbound((handler, ctx) -> handler.channelException(ctx, t));
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_EXCEPTION);
+            if (ctx != null) {
+                ctx.invokeChannelException(t);
+            }
+        } else {
+            this.execute(() -> this.fireChannelException(t));
+        }
     }
 
     @Override
     public void fireChannelUnWritable() {
-        this.doInvokeInbound(ChannelInboundHandler::channelUnWritable);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_UN_WRITABLE);
+            if (ctx != null) {
+                ctx.invokeChannelUnWritable();
+            }
+        } else {
+            this.execute(this::fireChannelUnWritable);
+        }
     }
 
     @Override
     public void fireChannelWritable() {
-        this.doInvokeInbound(ChannelInboundHandler::channelWritable);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_WRITABLE);
+            if (ctx != null) {
+                ctx.invokeChannelWritable();
+            }
+        } else {
+            this.execute(this::fireChannelWritable);
+        }
     }
 
     @Override
     public void fireChannelSendBufferFull() {
-        this.doInvokeInbound(ChannelInboundHandler::channelSendBufferFull);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findNextInbound(MASK_CHANNEL_SEND_BUFFER_FULL);
+            if (ctx != null) {
+                ctx.invokeChannelSendBufferFull();
+            }
+        } else {
+            this.execute(this::fireChannelSendBufferFull);
+        }
     }
 
     @Override
     public void fireChannelClose() {
-        this.doInvokeOutbound(ChannelOutboundHandler::close);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findPrevOutbound(MASK_CLOSE);
+            if (ctx != null) {
+                ctx.invokeClose();
+            }
+        } else {
+            this.execute(this::fireChannelClose);
+        }
     }
 
     @Override
-    public void fireChannelWrite(Object buf) {
-        this.doInvokeOutbound((handler, ctx) -> handler.write(ctx, buf));
+    public void fireChannelWrite(Object o) {
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findPrevOutbound(MASK_WRITE);
+            if (ctx != null) {
+                ctx.invokeWrite(o);
+            }
+        } else {
+            this.execute(() -> this.fireChannelWrite(o));
+        }
+    }
+
+    @Override
+    public void fireChannelWrite(Object o, WritePromise promise) {
+        if (eventLoop.inEventLoop()) {
+            var prev = pipeline.writePromise;
+            pipeline.writePromise = promise;
+            try {
+                this.fireChannelWrite(o);
+            } finally {
+                pipeline.writePromise = prev;
+            }
+        } else {
+            this.execute(() -> this.fireChannelWrite(o, promise));
+        }
+    }
+
+    @Override
+    public void fireChannelWriteAndFlush(Object o, WritePromise promise) {
+        if (eventLoop.inEventLoop()) {
+            var prev = pipeline.writePromise;
+            pipeline.writePromise = promise;
+            try {
+                this.fireChannelWriteAndFlush(o);
+            } finally {
+                pipeline.writePromise = prev;
+            }
+        } else {
+            this.execute(() -> this.fireChannelWriteAndFlush(o, promise));
+        }
+    }
+
+    @Override
+    public WritePromise writePromise() {
+        return pipeline.writePromise;
     }
 
     @Override
     public void fireChannelFlush() {
-        this.doInvokeOutbound(ChannelOutboundHandler::flush);
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findPrevOutbound(MASK_FLUSH);
+            if (ctx != null) {
+                ctx.invokeFlush();
+            }
+        } else {
+            this.execute(this::fireChannelFlush);
+        }
     }
 
     @Override
-    public void fireChannelWriteAndFlush(Object buf) {
-        this.doInvokeOutbound((handler, ctx) -> handler.writeAndFlush(ctx, buf));
+    public void fireChannelWriteAndFlush(Object o) {
+        if (eventLoop.inEventLoop()) {
+            var ctx = this.findPrevOutbound(MASK_WRITE_AND_FLUSH);
+            if (ctx != null) {
+                ctx.invokeWriteAndFlush(o);
+            }
+        } else {
+            this.execute(() -> this.fireChannelWriteAndFlush(o));
+        }
     }
 
-    private void doInvokeInbound(BiConsumer<ChannelInboundHandler, DefaultChannelHandlerContext> consumer) {
-        eventLoop.submitTask(() -> {
-            DefaultChannelHandlerContext cur = this.next;
-            while (cur != null) {
-                if (cur.handler() instanceof ChannelInboundHandler handler) {
-                    consumer.accept(handler, cur);
+    // The invokeXxx methods call the handler of this context, they must be called in the eventloop.
+
+    void invokeChannelInitialized() {
+        try {
+            ((ChannelInboundHandler) handler).channelInitialized(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelBound() {
+        try {
+            ((ChannelInboundHandler) handler).channelBound(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelRegistered() {
+        try {
+            ((ChannelInboundHandler) handler).channelRegistered(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelConnected() {
+        try {
+            ((ChannelInboundHandler) handler).channelConnected(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelRead(Object o) {
+        try {
+            ((ChannelInboundHandler) handler).channelRead(this, o);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelReadComplete() {
+        try {
+            ((ChannelInboundHandler) handler).channelReadComplete(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelClosed() {
+        try {
+            ((ChannelInboundHandler) handler).channelClosed(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelDeregistered() {
+        try {
+            ((ChannelInboundHandler) handler).channelDeregistered(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelException(Throwable t) {
+        try {
+            ((ChannelInboundHandler) handler).channelException(this, t);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelUnWritable() {
+        try {
+            ((ChannelInboundHandler) handler).channelUnWritable(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelWritable() {
+        try {
+            ((ChannelInboundHandler) handler).channelWritable(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeChannelSendBufferFull() {
+        try {
+            ((ChannelInboundHandler) handler).channelSendBufferFull(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeClose() {
+        try {
+            ((ChannelOutboundHandler) handler).close(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeWrite(Object o) {
+        try {
+            ((ChannelOutboundHandler) handler).write(this, o);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeFlush() {
+        try {
+            ((ChannelOutboundHandler) handler).flush(this);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    void invokeWriteAndFlush(Object o) {
+        try {
+            ((ChannelOutboundHandler) handler).writeAndFlush(this, o);
+        } catch (Throwable e) {
+            this.handlerError(e);
+        }
+    }
+
+    /**
+     * run the task in the eventloop, the event is dropped if the eventloop rejects it.
+     */
+    void execute(Runnable task) {
+        try {
+            eventLoop.execute(task);
+        } catch (RejectTaskException e) {
+            log.warn("event of channel {} is dropped: {}", channel, e.getMessage());
+        }
+    }
+
+    private void handlerError(Throwable e) {
+        log.error("handler {} occur error:", handler.getClass().getName(), e);
+    }
+
+    // hand over the snapshot to the next context, so that it can still forward the event even if it is removed
+    // by its handler right away.
+    private void found(DefaultChannelHandlerContext[] contexts, int i) {
+        this.snapshot = contexts;
+        this.index = i;
+    }
+
+    private DefaultChannelHandlerContext[] snapshot() {
+        var contexts = pipeline.contexts;
+        if (contexts != snapshot) {
+            for (int i = 0; i < contexts.length; i++) {
+                if (contexts[i] == this) {
+                    snapshot = contexts;
+                    index = i;
                     break;
-                } else {
-                    cur = this.next;
                 }
             }
-            return cur;
-        });
+        }
+        return snapshot;
     }
 
-    private void doInvokeOutbound(BiConsumer<ChannelOutboundHandler, DefaultChannelHandlerContext> consumer) {
-        eventLoop.submitTask(() -> {
-            DefaultChannelHandlerContext cur = this.prev;
-            while (cur != null) {
-                if (cur.handler() instanceof ChannelOutboundHandler handler) {
-                    consumer.accept(handler, cur);
-                    break;
-                } else {
-                    cur = this.prev;
-                }
+    private DefaultChannelHandlerContext findNextInbound(int mask) {
+        var contexts = this.snapshot();
+        if (contexts == null) {
+            return null; // removed before being reached by any event
+        }
+        for (int i = index + 1; i < contexts.length; i++) {
+            var ctx = contexts[i];
+            if ((ctx.executionMask & mask) != 0) {
+                ctx.found(contexts, i);
+                return ctx;
+            }
+        }
+        return null;
+    }
+
+    private DefaultChannelHandlerContext findPrevOutbound(int mask) {
+        var contexts = this.snapshot();
+        if (contexts == null) {
+            return null;
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            var ctx = contexts[i];
+            if ((ctx.executionMask & mask) != 0) {
+                ctx.found(contexts, i);
+                return ctx;
             }
-            return cur;
-        });
+        }
+        return null;
     }
 }
@@ -1,182 +1,432 @@
 package org.jaybill.jbio.core;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.jaybill.jbio.core.ex.EventLoopClosingException;
+import org.jctools.queues.MpscChunkedArrayQueue;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.UnaryOperator;
+
+/**
+ * The handler chain is an immutable array published by one volatile reference, including the head and the tail. <br/>
+ * Every change copies the array and swaps it by CAS, so the handlers can be changed from any thread
+ * while the eventloop is dispatching events, and the dispatching needs no lock. <br/>
+ * The outbound events fired outside the eventloop are put into a lock-free queue of the pipeline,
+ * and the eventloop drains them in order in one task. The flushes are delayed to the next writeAndFlush or close,
+ * or to the end of the drain, so the writes in between go out with one flush.
+ */
+@Slf4j
 public class DefaultChannelPipeline implements ChannelPipeline {
 
-    private final Lock lock = new ReentrantLock();
+    private static final AtomicReferenceFieldUpdater<DefaultChannelPipeline, DefaultChannelHandlerContext[]> contextsUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultChannelPipeline.class, DefaultChannelHandlerContext[].class, "contexts");
+    volatile DefaultChannelHandlerContext[] contexts;
+
     private final DefaultChannelHandlerContext head;
     private final DefaultChannelHandlerContext tail;
     private final EventLoop eventLoop;
     private final NioChannel channel;
+    // the promise of the write being dispatched, only accessed in the eventloop
+    WritePromise writePromise;
+
+    // the outbound events fired outside the eventloop
+    private static final int MAX_PENDING_OUTBOUND = 64 * 1024;
+    private static final int MAX_OUTBOUND_PER_DRAIN = 1024;
+    private static final PendingOutbound FLUSH = new PendingOutbound(null, null, OutboundKind.FLUSH);
+    private static final PendingOutbound CLOSE = new PendingOutbound(null, null, OutboundKind.CLOSE);
+    private static final AtomicIntegerFieldUpdater<DefaultChannelPipeline> drainScheduledUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(DefaultChannelPipeline.class, "drainScheduled");
+    private final MpscChunkedArrayQueue<PendingOutbound> pendingOutbound =
+            new MpscChunkedArrayQueue<>(16, MAX_PENDING_OUTBOUND);
+    private final Runnable drainTask = this::drainOutbound;
+    private volatile int drainScheduled;
+    // the flush and close which didn't fit in the full queue, done once the queue is drained
+    private volatile boolean flushOverflowed;
+    private volatile boolean closeOverflowed;
+
+    private enum OutboundKind { WRITE, WRITE_AND_FLUSH, FLUSH, CLOSE }
+
+    private record PendingOutbound(Object msg, WritePromise promise, OutboundKind kind) {}
 
     public DefaultChannelPipeline(ChannelHandler headHandler, ChannelHandler tailHandler, NioChannel channel, EventLoop eventLoop) {
         this.eventLoop = eventLoop;
         this.channel = channel;
-        head = new DefaultChannelHandlerContext(headHandler, channel, eventLoop);
-        tail = new DefaultChannelHandlerContext(tailHandler, channel, eventLoop);
-        head.next = tail;
-        tail.prev = head;
+        head = new DefaultChannelHandlerContext(this, headHandler, channel, eventLoop);
+        tail = new DefaultChannelHandlerContext(this, tailHandler, channel, eventLoop);
+        contexts = new DefaultChannelHandlerContext[] {head, tail};
+    }
+
+    @Override
+    public ChannelPipeline addFirst(ChannelHandler handler) {
+        var ctx = this.newContext(handler);
+        this.update(cur -> insert(cur, 1, ctx));
+        return this;
     }
 
     @Override
     public ChannelPipeline addLast(ChannelHandler handler) {
-        var cur = new DefaultChannelHandlerContext(handler, channel, eventLoop);
-        try {
-            lock.lock();
-            var p = tail.prev;
-            p.next = cur;
-            cur.prev = p;
-            cur.next = tail;
-            tail.prev = cur;
-            return this;
-        } finally {
-            lock.unlock();
-        }
+        var ctx = this.newContext(handler);
+        this.update(cur -> insert(cur, cur.length - 1, ctx));
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline addBefore(ChannelHandler baseHandler, ChannelHandler handler) {
+        var ctx = this.newContext(handler);
+        this.update(cur -> insert(cur, indexOfExisting(cur, baseHandler), ctx));
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline addAfter(ChannelHandler baseHandler, ChannelHandler handler) {
+        var ctx = this.newContext(handler);
+        this.update(cur -> insert(cur, indexOfExisting(cur, baseHandler) + 1, ctx));
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline replace(ChannelHandler oldHandler, ChannelHandler newHandler) {
+        var ctx = this.newContext(newHandler);
+        this.update(cur -> {
+            int idx = indexOfExisting(cur, oldHandler);
+            var arr = cur.clone();
+            arr[idx] = ctx;
+            return arr;
+        });
+        return this;
     }
 
     @Override
     public ChannelPipeline remove(ChannelHandler handler) {
-        try {
-            lock.lock();
-            var cur = head.next;
-            while (cur != tail) {
-                if (handler == cur.handler()) {
-                    // We only remove the node from pipeline,
-                    // and still reserve the prev and next pointer of the node.
-                    var prev = cur.prev;
-                    var next = cur.next;
-                    prev.next = next;
-                    next.prev = prev;
-                    break;
-                } else {
-                    cur = cur.next;
-                }
+        // The removed context still forwards the event it is handling,
+        // see DefaultChannelHandlerContext.
+        this.update(cur -> {
+            int idx = indexOf(cur, handler);
+            if (idx < 0) {
+                return cur;
             }
-        } finally {
-            lock.unlock();
-        }
+            var arr = new DefaultChannelHandlerContext[cur.length - 1];
+            System.arraycopy(cur, 0, arr, 0, idx);
+            System.arraycopy(cur, idx + 1, arr, idx, cur.length - idx - 1);
+            return arr;
+        });
         return this;
     }
 
+    private DefaultChannelHandlerContext newContext(ChannelHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        return new DefaultChannelHandlerContext(this, handler, channel, eventLoop);
+    }
+
+    private void update(UnaryOperator<DefaultChannelHandlerContext[]> op) {
+        for (;;) {
+            var cur = contexts;
+            var arr = op.apply(cur);
+            if (arr == cur || contextsUpdater.compareAndSet(this, cur, arr)) {
+                return;
+            }
+        }
+    }
+
+    private static DefaultChannelHandlerContext[] insert(DefaultChannelHandlerContext[] cur, int idx, DefaultChannelHandlerContext ctx) {
+        var arr = new DefaultChannelHandlerContext[cur.length + 1];
+        System.arraycopy(cur, 0, arr, 0, idx);
+        arr[idx] = ctx;
+        System.arraycopy(cur, idx, arr, idx + 1, cur.length - idx);
+        return arr;
+    }
+
+    // the index of the handler, excluding the head and the tail, -1 if not found
+    private static int indexOf(DefaultChannelHandlerContext[] cur, ChannelHandler handler) {
+        for (int i = 1; i < cur.length - 1; i++) {
+            if (cur[i].handler() == handler) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfExisting(DefaultChannelHandlerContext[] cur, ChannelHandler handler) {
+        int idx = indexOf(cur, handler);
+        if (idx < 0) {
+            throw new IllegalArgumentException("handler not found in pipeline: " + handler);
+        }
+        return idx;
+    }
+
     @Override
     public void fireChannelInitialized() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelInitialized(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelInitialized();
+        } else {
+            head.execute(head::invokeChannelInitialized);
+        }
     }
 
     @Override
     public void fireChannelBound() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelBound(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelBound();
+        } else {
+            head.execute(head::invokeChannelBound);
+        }
     }
 
     @Override
     public void fireChannelRegistered() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelRegistered(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelRegistered();
+        } else {
+            head.execute(head::invokeChannelRegistered);
+        }
     }
 
     @Override
     public void fireChannelConnected() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelConnected(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelConnected();
+        } else {
+            head.execute(head::invokeChannelConnected);
+        }
     }
 
     @Override
     public void fireChannelRead(Object o) {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelRead(head, o);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelRead(o);
+        } else {
+            head.execute(() -> head.invokeChannelRead(o));
+        }
+    }
+
+    @Override
+    public void fireChannelReadComplete() {
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelReadComplete();
+        } else {
+            head.execute(head::invokeChannelReadComplete);
+        }
     }
 
     @Override
     public void fireChannelClosed() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelClosed(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelClosed();
+        } else {
+            head.execute(head::invokeChannelClosed);
+        }
     }
 
     @Override
     public void fireChannelDeregistered() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelDeregistered(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelDeregistered();
+        } else {
+            head.execute(head::invokeChannelDeregistered);
+        }
     }
 
     @Override
     public void fireChannelException(Throwable t) {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelException(head, t);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelException(t);
+        } else {
+            head.execute(() -> head.invokeChannelException(t));
+        }
     }
 
     @Override
     public void fireChannelUnWritable() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelUnWritable(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelUnWritable();
+        } else {
+            head.execute(head::invokeChannelUnWritable);
+        }
     }
 
     @Override
     public void fireChannelWritable() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelWritable(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelWritable();
+        } else {
+            head.execute(head::invokeChannelWritable);
+        }
     }
 
     @Override
     public void fireChannelSendBufferFull() {
-        eventLoop.submitTask(() -> {
-            ((ChannelInboundHandler) head.handler()).channelSendBufferFull(head);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            head.invokeChannelSendBufferFull();
+        } else {
+            head.execute(head::invokeChannelSendBufferFull);
+        }
     }
 
     @Override
     public void fireChannelClose() {
-        eventLoop.submitTask(() -> {
-            ((ChannelOutboundHandler) tail.handler()).close(tail);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            tail.invokeClose();
+        } else {
+            this.addOutbound(CLOSE);
+        }
     }
 
     @Override
-    public void fireChannelWrite(Object buf) {
-        eventLoop.submitTask(() -> {
-            ((ChannelOutboundHandler) tail.handler()).write(tail, buf);
-            return null;
-        });
+    public void fireChannelWrite(Object o) {
+        if (eventLoop.inEventLoop()) {
+            tail.invokeWrite(o);
+        } else {
+            this.addOutbound(new PendingOutbound(o, null, OutboundKind.WRITE));
+        }
+    }
+
+    @Override
+    public void fireChannelWrite(Object o, WritePromise promise) {
+        if (eventLoop.inEventLoop()) {
+            var prev = writePromise;
+            writePromise = promise;
+            try {
+                tail.invokeWrite(o);
+            } finally {
+                writePromise = prev;
+            }
+        } else {
+            this.addOutbound(new PendingOutbound(o, promise, OutboundKind.WRITE));
+        }
+    }
+
+    @Override
+    public void fireChannelWriteAndFlush(Object o, WritePromise promise) {
+        if (eventLoop.inEventLoop()) {
+            var prev = writePromise;
+            writePromise = promise;
+            try {
+                tail.invokeWriteAndFlush(o);
+            } finally {
+                writePromise = prev;
+            }
+        } else {
+            this.addOutbound(new PendingOutbound(o, promise, OutboundKind.WRITE_AND_FLUSH));
+        }
     }
 
     @Override
     public void fireChannelFlush() {
-        eventLoop.submitTask(() -> {
-            ((ChannelOutboundHandler) tail.handler()).flush(tail);
-            return null;
-        });
+        if (eventLoop.inEventLoop()) {
+            tail.invokeFlush();
+        } else {
+            this.addOutbound(FLUSH);
+        }
     }
 
     @Override
-    public void fireChannelWriteAndFlush(Object buf) {
-        eventLoop.submitTask(() -> {
-            ((ChannelOutboundHandler) tail.handler()).writeAndFlush(tail, buf);
-            return null;
-        });
+    public void fireChannelWriteAndFlush(Object o) {
+        if (eventLoop.inEventLoop()) {
+            tail.invokeWriteAndFlush(o);
+        } else {
+            this.addOutbound(new PendingOutbound(o, null, OutboundKind.WRITE_AND_FLUSH));
+        }
+    }
+
+    private void addOutbound(PendingOutbound event) {
+        if (eventLoop instanceof NioEventLoop loop && loop.isClosing()) {
+            this.reject(event, new EventLoopClosingException());
+            return;
+        }
+        if (!pendingOutbound.offer(event)) {
+            // too many pending events, never wait for the eventloop
+            if (event == FLUSH) {
+                flushOverflowed = true;
+            } else if (event == CLOSE) {
+                closeOverflowed = true;
+            } else {
+                log.warn("outbound event of channel {} is dropped: too many pending outbound events", channel);
+                this.reject(event, new RejectTaskException("too many pending outbound events"));
+            }
+        }
+        this.scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled == 0 && drainScheduledUpdater.compareAndSet(this, 0, 1)) {
+            try {
+                eventLoop.execute(drainTask);
+            } catch (RejectTaskException e) {
+                log.warn("outbound events of channel {} are dropped: {}", channel, e.getMessage());
+                drainScheduled = 0;
+                this.dropOutbound(e);
+            }
+        }
+    }
+
+    // in the eventloop
+    private void drainOutbound() {
+        drainScheduled = 0;
+        boolean flush = false;
+        var prev = writePromise;
+        try {
+            PendingOutbound event;
+            for (int i = 0; i < MAX_OUTBOUND_PER_DRAIN && (event = pendingOutbound.poll()) != null; i++) {
+                switch (event.kind()) {
+                    case WRITE -> {
+                        writePromise = event.promise();
+                        tail.invokeWrite(event.msg());
+                    }
+                    case FLUSH -> flush = true;
+                    case WRITE_AND_FLUSH -> {
+                        // it flushes the writes before it as well
+                        flush = false;
+                        writePromise = event.promise();
+                        tail.invokeWriteAndFlush(event.msg());
+                    }
+                    case CLOSE -> {
+                        if (flush) {
+                            flush = false;
+                            tail.invokeFlush();
+                        }
+                        tail.invokeClose();
+                    }
+                }
+            }
+        } finally {
+            writePromise = prev;
+        }
+        if (!pendingOutbound.isEmpty()) {
+            if (flush) {
+                tail.invokeFlush();
+            }
+            this.scheduleDrain();
+            return;
+        }
+        if (flushOverflowed) {
+            flushOverflowed = false;
+            flush = true;
+        }
+        if (flush) {
+            tail.invokeFlush();
+        }
+        if (closeOverflowed) {
+            closeOverflowed = false;
+            tail.invokeClose();
+        }
+    }
+
+    private static void reject(PendingOutbound event, Throwable cause) {
+        if (event.msg() != null) {
+            ReleaseUtil.safeRelease(event.msg());
+        }
+        if (event.promise() != null) {
+            event.promise().completeExceptionally(cause);
+        }
+    }
+
+    private void dropOutbound(Throwable cause) {
+        PendingOutbound event;
+        while ((event = pendingOutbound.poll()) != null) {
+            reject(event, cause);
+        }
     }
 }
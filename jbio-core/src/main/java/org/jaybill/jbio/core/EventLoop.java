@@ -20,6 +20,14 @@ public interface EventLoop {
      */
     <T> CompletableFuture<T> submitTask(Callable<T> c);
 
+    /**
+     * Run the task in the eventloop, it is cheaper than {@link #submitTask(Callable)} since no future is created.
+     * The task runs immediately if the caller is in the eventloop.
+     * @param r runnable
+     * @throws RejectTaskException if queue overflows.
+     */
+    void execute(Runnable r);
+
     /**
      * schedule task
      * @param r runnable
@@ -28,6 +36,15 @@ public interface EventLoop {
      */
     CompletableFuture<?> scheduleTask(Runnable r, int delay, TimeUnit unit);
 
+    /**
+     * schedule task at fixed rate, the task keeps running until the future be cancelled or the eventloop be closed.
+     * @param r runnable
+     * @param initialDelay the delay of the first execution
+     * @param period the period between the beginning of two executions
+     * @param unit time unit
+     */
+    CompletableFuture<?> scheduleAtFixedRate(Runnable r, int initialDelay, int period, TimeUnit unit);
+
     /**
      * close eventloop
      */
@@ -0,0 +1,122 @@
+package org.jaybill.jbio.core;
+
+import org.jaybill.jbio.core.ex.IllegalReferenceCountException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A region of a file, which is written to the channel by {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so the bytes go from the page cache to the socket without being copied into the user space (sendfile on Linux). <br/>
+ * It is released after it has been fully written, and the file is closed when the reference count reaches 0.
+ */
+public final class FileRegion implements ReferenceCounted {
+
+    private static final AtomicIntegerFieldUpdater<FileRegion> refCntUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(FileRegion.class, "refCnt");
+    private volatile int refCnt = 1;
+
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+    // only accessed in the eventloop
+    private long transferred;
+
+    public FileRegion(FileChannel file, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position and count must be >= 0");
+        }
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    public FileChannel file() {
+        return file;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    /**
+     * the bytes which have not been transferred yet
+     */
+    public long remaining() {
+        return count - transferred;
+    }
+
+    /**
+     * Transfer the rest of the region to the target, it may transfer only a part of it.
+     * @return the number of bytes transferred
+     * @throws IOException if the file is shorter than the region
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long remaining = count - transferred;
+        if (remaining == 0) {
+            return 0;
+        }
+        long c = file.transferTo(position + transferred, remaining, target);
+        if (c == 0 && position + transferred >= file.size()) {
+            throw new IOException("file region is out of the file, size:" + file.size()
+                    + ", position:" + position + ", count:" + count);
+        }
+        transferred += c;
+        return c;
+    }
+
+    @Override
+    public int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public FileRegion retain() {
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt <= 0) {
+                throw new IllegalReferenceCountException("file region has been released");
+            }
+            if (refCntUpdater.compareAndSet(this, cnt, cnt + 1)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public boolean release() {
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt <= 0) {
+                throw new IllegalReferenceCountException("file region has been released");
+            }
+            if (refCntUpdater.compareAndSet(this, cnt, cnt - 1)) {
+                if (cnt == 1) {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion(position=" + position + ", count=" + count + ", transferred=" + transferred
+                + ", refCnt=" + refCnt + ")";
+    }
+}
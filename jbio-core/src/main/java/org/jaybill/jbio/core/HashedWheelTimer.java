@@ -0,0 +1,174 @@
+package org.jaybill.jbio.core;
+
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel owned by one eventloop. <br/>
+ * It is only accessed by the eventloop thread, so schedule and cancel are O(1) and need no lock. <br/>
+ * Tick {@code t} covers the time range {@code [start + t * tickNanos, start + (t + 1) * tickNanos)},
+ * and its bucket is processed once the whole range has elapsed. A task whose deadline is more than one round away
+ * stays in its bucket with {@code remainingRounds > 0}, which is decremented each time the bucket is visited.
+ */
+final class HashedWheelTimer {
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final int mask;
+    private final ScheduledTask[] heads;
+    private final ScheduledTask[] tails;
+    // one bit per bucket, so that finding the next non-empty bucket doesn't need to walk the whole wheel
+    private final long[] occupied;
+
+    private long tick; // the next tick to be processed
+    private int size;
+
+    HashedWheelTimer(long tickNanos, int ticksPerWheel, long startNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be greater than 0");
+        }
+        if (ticksPerWheel < 64 || Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("ticksPerWheel must be a power of 2 and not less than 64");
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+        this.mask = ticksPerWheel - 1;
+        this.heads = new ScheduledTask[ticksPerWheel];
+        this.tails = new ScheduledTask[ticksPerWheel];
+        this.occupied = new long[ticksPerWheel >>> 6];
+    }
+
+    /**
+     * add the task to the bucket of its deadline
+     */
+    void schedule(ScheduledTask task) {
+        long calculated = Math.max(0, task.deadline - startNanos) / tickNanos;
+        // the task may already be expired, put it in the next bucket to be processed
+        long ticks = Math.max(calculated, tick);
+        task.remainingRounds = (ticks - tick) / heads.length;
+        int idx = (int) (ticks & mask);
+
+        task.bucket = idx;
+        task.prev = tails[idx];
+        task.next = null;
+        if (tails[idx] == null) {
+            heads[idx] = task;
+            occupied[idx >>> 6] |= 1L << idx;
+        } else {
+            tails[idx].next = task;
+        }
+        tails[idx] = task;
+        size++;
+    }
+
+    /**
+     * remove the task from its bucket, do nothing if the task is not in the wheel
+     */
+    void remove(ScheduledTask task) {
+        int idx = task.bucket;
+        if (idx < 0) {
+            return;
+        }
+        if (task.prev == null) {
+            heads[idx] = task.next;
+        } else {
+            task.prev.next = task.next;
+        }
+        if (task.next == null) {
+            tails[idx] = task.prev;
+        } else {
+            task.next.prev = task.prev;
+        }
+        if (heads[idx] == null) {
+            occupied[idx >>> 6] &= ~(1L << idx);
+        }
+        task.prev = null;
+        task.next = null;
+        task.bucket = -1;
+        size--;
+    }
+
+    /**
+     * Process all ticks which have elapsed at {@code now}, and pass the expired tasks to the consumer. <br/>
+     * The expired tasks have been removed from the wheel before being passed.
+     */
+    void expire(long now, Consumer<ScheduledTask> consumer) {
+        long target = (now - startNanos) / tickNanos;
+        if (size == 0) {
+            tick = Math.max(tick, target);
+            return;
+        }
+        while (tick < target) {
+            int idx = (int) (tick & mask);
+            tick++;
+            if ((occupied[idx >>> 6] & (1L << idx)) == 0) {
+                continue;
+            }
+            var task = heads[idx];
+            while (task != null) {
+                var next = task.next;
+                if (task.remainingRounds <= 0 || task.isCancelled()) {
+                    this.remove(task);
+                    consumer.accept(task);
+                } else {
+                    task.remainingRounds--;
+                }
+                task = next;
+            }
+            if (size == 0) {
+                tick = target;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the nanos until the next non-empty bucket should be processed, or -1 if the wheel is empty.
+     */
+    long nanosToNextTick(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        int from = (int) (tick & mask);
+        int idx = nextOccupied(from);
+        long ticks;
+        if (idx >= 0) {
+            ticks = idx - from;
+        } else {
+            ticks = nextOccupied(0) + heads.length - from;
+        }
+        long nextTickEnd = startNanos + (tick + ticks + 1) * tickNanos;
+        return Math.max(0, nextTickEnd - now);
+    }
+
+    /**
+     * remove all tasks from the wheel
+     */
+    void clear(Consumer<ScheduledTask> consumer) {
+        for (int i = 0; i < heads.length; i++) {
+            ScheduledTask task;
+            while ((task = heads[i]) != null) {
+                this.remove(task);
+                consumer.accept(task);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // return the first occupied bucket index in [from, ticksPerWheel), or -1 if not found
+    private int nextOccupied(int from) {
+        int w = from >>> 6;
+        long word = occupied[w] & (-1L << from);
+        for (;;) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == occupied.length) {
+                return -1;
+            }
+            word = occupied[w];
+        }
+    }
+}
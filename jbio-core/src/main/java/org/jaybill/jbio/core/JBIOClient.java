@@ -20,8 +20,12 @@ public class JBIOClient {
     }
 
     public JBIOClient eventLoop(int workers) {
+        return this.eventLoop(workers, new NioEventLoopConfig());
+    }
+
+    public JBIOClient eventLoop(int workers, NioEventLoopConfig eventLoopConfig) {
         this.workers = workers;
-        workerGroup = new NioEventLoopGroup(workers, provider, "nio-worker-eventloop-");
+        workerGroup = new NioEventLoopGroup(workers, provider, "nio-worker-eventloop-", eventLoopConfig);
         return this;
     }
 
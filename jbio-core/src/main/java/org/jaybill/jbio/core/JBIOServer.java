@@ -3,7 +3,11 @@ package org.jaybill.jbio.core;
 import lombok.extern.slf4j.Slf4j;
 
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Slf4j
 public class JBIOServer {
@@ -16,6 +20,10 @@ public class JBIOServer {
     private NioEventLoopGroup workerGroup;
     private int bosses;
     private int workers;
+    // the server channels bound by startReusePort, they live on the worker eventloops
+    private final List<ReusePortListener> reusePortListeners = new CopyOnWriteArrayList<>();
+
+    private record ReusePortListener(NioEventLoop loop, NioServerSocketChannel channel) {}
 
     private JBIOServer() {}
 
@@ -38,10 +46,14 @@ public class JBIOServer {
     }
 
     public JBIOServer eventLoop(int bosses, int workers) {
+        return this.eventLoop(bosses, workers, new NioEventLoopConfig());
+    }
+
+    public JBIOServer eventLoop(int bosses, int workers, NioEventLoopConfig eventLoopConfig) {
         this.bosses = bosses;
         this.workers = workers;
-        this.bossGroup = new NioEventLoopGroup(bosses, provider, "nio-boss-eventloop-");
-        this.workerGroup = new NioEventLoopGroup(workers, provider, "nio-worker-eventloop-");
+        this.bossGroup = new NioEventLoopGroup(bosses, provider, "nio-boss-eventloop-", eventLoopConfig);
+        this.workerGroup = new NioEventLoopGroup(workers, provider, "nio-worker-eventloop-", eventLoopConfig);
         return this;
     }
 
@@ -56,10 +68,73 @@ public class JBIOServer {
         return serverSocketChannel.open();
     }
 
-    public void closeAll() {
-        // first, close NioServerSocketChannels
-        bossGroup.close();
+    public CompletableFuture<List<NioServerSocketChannel>> startReusePort(String host, int port) {
+        return this.startReusePort(host, port, null);
+    }
+
+    /**
+     * Bind a server channel with SO_REUSEPORT on each worker eventloop, the kernel spreads the connections to them,
+     * and each connection is served by the eventloop accepting it, without the handover from the boss. <br/>
+     * The boss eventloops are not used. The port must not be 0, and SO_REUSEPORT must be supported by the OS.
+     * @throws IllegalArgumentException if the port is 0, each channel would be bound to a different port
+     */
+    public CompletableFuture<List<NioServerSocketChannel>> startReusePort(String host, int port, Integer backlog) {
+        if (port == 0) {
+            throw new IllegalArgumentException("port must not be 0 with SO_REUSEPORT");
+        }
+        var template = new NioChannelConfigTemplate();
+        var options = new HashMap<SocketOption<?>, Object>();
+        if (bossConfigTemplate.getOptions() != null) {
+            options.putAll(bossConfigTemplate.getOptions());
+        }
+        options.put(SocketOption.SO_REUSE_PORT, true);
+        template.setOptions(options);
+        template.setMaxAcceptCountPerLoop(bossConfigTemplate.getMaxAcceptCountPerLoop());
+
+        var loops = workerGroup.loops();
+        var futures = new ArrayList<CompletableFuture<NioServerSocketChannel>>();
+        for (var loop : loops) {
+            var serverSocketChannel = new NioServerSocketChannel(provider, loop,
+                    template, workerConfigTemplate,
+                    bossInitializer, workerInitializer, null, host, port, backlog);
+            futures.add(serverSocketChannel.open());
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).toList())
+                .whenComplete((r, t) -> {
+                    if (t == null) {
+                        for (int i = 0; i < r.size(); i++) {
+                            reusePortListeners.add(new ReusePortListener(loops.get(i), r.get(i)));
+                        }
+                    } else {
+                        // close the bound ones
+                        futures.forEach(f -> f.thenAccept(NioServerSocketChannel::close));
+                    }
+                });
+    }
+
+    /**
+     * Close the server channels and the eventloops.
+     * @return the future completed once the server channels of {@link #startReusePort} are closed on their eventloops,
+     * and the eventloops are closed
+     */
+    public CompletableFuture<Void> closeAll() {
+        // first, close NioServerSocketChannels, the ones of startReusePort are on the worker eventloops
+        var futures = new ArrayList<CompletableFuture<?>>();
+        for (var listener : reusePortListeners) {
+            futures.add(listener.loop().submitTask(() -> {
+                listener.channel().close();
+                return null;
+            }).exceptionally(t -> {
+                // the eventloop is closing already
+                listener.channel().close();
+                return null;
+            }));
+        }
+        reusePortListeners.clear();
+        futures.add(bossGroup.close());
         // then, close NioSocketChannels
-        workerGroup.close();
+        futures.add(workerGroup.close());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 }
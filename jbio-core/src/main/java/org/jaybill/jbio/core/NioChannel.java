@@ -37,5 +37,28 @@ public interface NioChannel {
 
     CompletableFuture<? extends NioChannel> open();
 
+    /**
+     * If false, the channel stops reading from the socket, until {@link #read()} or setAutoRead(true) is called. <br/>
+     * e.g. a proxy handler pauses the reading on channelUnWritable, and resumes it on channelWritable.
+     */
+    void setAutoRead(boolean autoRead);
+
+    boolean isAutoRead();
+
+    /**
+     * Request one more read when autoRead is false, no effect when autoRead is true.
+     */
+    void read();
+
     void close();
+
+    /**
+     * get the attribute of the channel, or null if absent
+     */
+    <T> T attr(AttributeKey<T> key);
+
+    /**
+     * set the attribute of the channel, it can be called from any thread
+     */
+    <T> void attr(AttributeKey<T> key, T v);
 }
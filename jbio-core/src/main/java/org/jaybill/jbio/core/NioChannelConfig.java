@@ -7,4 +7,5 @@ import java.util.Map;
 @Data
 public class NioChannelConfig {
     private Map<SocketOption<?>, Object> options;
+    private int maxAcceptCountPerLoop;
 }
@@ -12,6 +12,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @AllArgsConstructor
 public class NioChannelConfigTemplate implements ChannelConfigTemplate {
     protected Map<SocketOption<?>, Object> options;
+    // the max connections accepted by one OP_ACCEPT event of the server channel
+    protected int maxAcceptCountPerLoop = 16;
     public static NioChannelConfigTemplate DEFAULT = new NioChannelConfigTemplate();
 
     @Override
@@ -22,6 +24,7 @@ public class NioChannelConfigTemplate implements ChannelConfigTemplate {
         if (options != null) {
             optionMap.putAll(options);
         }
+        config.setMaxAcceptCountPerLoop(maxAcceptCountPerLoop);
         return config;
     }
 }
@@ -1,25 +1,28 @@
 package org.jaybill.jbio.core;
 
-import lombok.AllArgsConstructor;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.jctools.queues.MpscArrayQueue;
+import org.jctools.queues.MpscChunkedArrayQueue;
+import org.jctools.queues.MpscUnboundedArrayQueue;
 
 import java.io.IOException;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Consumer;
 
 @Slf4j
 public class NioEventLoop implements EventLoop, Runnable {
 
     private static final AtomicInteger COUNTER = new AtomicInteger(0);
+    private static final long TIMER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
 
     private static final int INIT = 0;
     private static final int STARTED = 1;
@@ -27,31 +30,193 @@ public class NioEventLoop implements EventLoop, Runnable {
     private static final int CLOSED = 3;
     private static final AtomicIntegerFieldUpdater<NioEventLoop> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(
             NioEventLoop.class, "state");
-    private int state = INIT;
+    private volatile int state = INIT;
+
+    // The deadline (relative to startNanos) which the eventloop will wake up at by itself,
+    // AWAKE means it is not going to block in select(), NONE means it will block until be woken up.
+    // Other threads only call `selector.wakeup()` when they change it from a blocking value to AWAKE,
+    // so there is at most one wakeup syscall per select().
+    private static final long AWAKE = -1L;
+    private static final long NONE = Long.MAX_VALUE;
+    private static final AtomicLongFieldUpdater<NioEventLoop> nextWakeupNanosUpdater =
+            AtomicLongFieldUpdater.newUpdater(NioEventLoop.class, "nextWakeupNanos");
+    private volatile long nextWakeupNanos = AWAKE;
     private CompletableFuture<Void> closedFuture = new CompletableFuture<>();
 
     private Thread thread;
-    private PriorityBlockingQueue<DelayTask<?>> delayTaskQueue;
     private Queue<Runnable> taskQueue;
-    private Selector selector;
+    private Queue<Runnable> spillQueue;
+    private final RejectedTaskHandler rejectedTaskHandler;
+    private final NioEventLoopMetrics metrics;
+    // Scheduled tasks and cancellations from other threads, they are moved into the timer by the eventloop thread.
+    private Queue<ScheduledTask> scheduledTaskQueue;
+    private final ArrayDeque<ScheduledTask> expiredTasks = new ArrayDeque<>();
+    private final Consumer<ScheduledTask> expiredTaskCollector = expiredTasks::add;
+    private HashedWheelTimer timer;
+    private long nanoTime; // the cached clock of the eventloop
+    private final long startNanos;
+    private volatile Selector selector;
     private SelectorProvider provider;
+    private final boolean optimizeSelectedKeys;
+    private SelectedSelectionKeySet selectedKeys; // null if the selected keys are not optimized
+    private final int selectorAutoRebuildThreshold;
+    private int prematureSelects; // the number of consecutive select() returned early with nothing to do
+    private final int ioRatio;
+    private final int maxTasksPerIteration;
+    // the caches of the pooled buffers, only accessed by the eventloop thread
+    private ByteBufferArena.Cache heapArenaCache;
+    private ByteBufferArena.Cache directArenaCache;
 
     public NioEventLoop(SelectorProvider provider, String namePrefix) {
+        this(provider, namePrefix, new NioEventLoopConfig());
+    }
+
+    public NioEventLoop(SelectorProvider provider, String namePrefix, NioEventLoopConfig config) {
         this.provider = provider;
-        this.thread = new Thread(this, namePrefix + COUNTER.getAndAdd(1));
-        this.taskQueue = new MpscArrayQueue<>(16);
-        this.delayTaskQueue = new PriorityBlockingQueue<>();
+        this.thread = new EventLoopThread(this, namePrefix + COUNTER.getAndAdd(1));
+        this.taskQueue = new MpscChunkedArrayQueue<>(
+                config.getTaskQueueInitialCapacity(), config.getTaskQueueMaxCapacity());
+        this.spillQueue = new MpscUnboundedArrayQueue<>(16);
+        this.rejectedTaskHandler = config.getRejectedTaskHandler();
+        this.metrics = new NioEventLoopMetrics(this);
+        this.scheduledTaskQueue = new MpscUnboundedArrayQueue<>(16);
+        this.nanoTime = System.nanoTime();
+        this.startNanos = nanoTime;
+        this.timer = new HashedWheelTimer(TIMER_TICK_NANOS, TIMER_TICKS_PER_WHEEL, startNanos);
+        this.optimizeSelectedKeys = config.isOptimizeSelectedKeys();
+        this.selectorAutoRebuildThreshold = config.getSelectorAutoRebuildThreshold();
+        if (config.getIoRatio() <= 0 || config.getIoRatio() > 100) {
+            throw new IllegalArgumentException("ioRatio must be in (0, 100]");
+        }
+        if (config.getMaxTasksPerIteration() <= 0) {
+            throw new IllegalArgumentException("maxTasksPerIteration must be greater than 0");
+        }
+        this.ioRatio = config.getIoRatio();
+        this.maxTasksPerIteration = config.getMaxTasksPerIteration();
         try {
-            this.selector = provider.openSelector();
+            this.openSelector();
         } catch (IOException e) {
             throw new JBIOException("can not open selector", e);
         }
     }
 
+    private void openSelector() throws IOException {
+        this.selector = provider.openSelector();
+        this.selectedKeys = optimizeSelectedKeys ? SelectedSelectionKeySet.install(selector) : null;
+    }
+
+    /**
+     * Replace the selector with a new one, and move all valid keys to it with their interest ops and channels.
+     * It is called in the eventloop.
+     */
+    void rebuildSelector() {
+        var oldSelector = selector;
+        var oldSelectedKeys = selectedKeys;
+        try {
+            this.openSelector();
+        } catch (IOException e) {
+            log.error("rebuild selector error:", e);
+            return;
+        }
+        if (oldSelectedKeys != null) {
+            oldSelectedKeys.reset();
+        }
+
+        int moved = 0;
+        for (var key : oldSelector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof AbstractNioChannel ch)) {
+                continue;
+            }
+            try {
+                int interestOps = key.interestOps();
+                key.cancel();
+                ch.selectionKey = key.channel().register(selector, interestOps, ch);
+                moved++;
+            } catch (Exception e) {
+                log.error("re-register channel error, close it:", e);
+                if (ch instanceof NioChannel c) {
+                    c.close();
+                }
+            }
+        }
+        try {
+            oldSelector.close();
+        } catch (IOException e) {
+            log.warn("close old selector error:", e);
+        }
+        metrics.selectorRebuilds.increment();
+        log.info("eventloop {} rebuilt the selector, {} channels moved", name(), moved);
+    }
+
     public Selector selector() {
         return selector;
     }
 
+    /**
+     * The clock cached by the eventloop, it is refreshed on every loop, only call it in the eventloop. <br/>
+     * It is cheaper than {@link System#nanoTime()}, but it may lag behind the real time by the duration of one loop.
+     */
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    public String name() {
+        return thread.getName();
+    }
+
+    public NioEventLoopMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Try to add the task to the task queue, it is for {@link RejectedTaskHandler}.
+     * @return false if the task queue is full
+     */
+    public boolean offerTask(Runnable task) {
+        return taskQueue.offer(task);
+    }
+
+    /**
+     * Add the task to the unbounded spill queue, it is for {@link RejectedTaskHandler}.
+     */
+    public void spillTask(Runnable task) {
+        spillQueue.offer(task);
+        metrics.spilledTasks.increment();
+    }
+
+    public boolean isClosing() {
+        return state >= CLOSING;
+    }
+
+    int pendingTasks() {
+        return taskQueue.size();
+    }
+
+    int pendingSpilledTasks() {
+        return spillQueue.size();
+    }
+
+    /**
+     * @return the eventloop of the current thread, or null if it is not an eventloop thread
+     */
+    static NioEventLoop current() {
+        return Thread.currentThread() instanceof EventLoopThread t ? t.loop : null;
+    }
+
+    // in the eventloop
+    ByteBufferArena.Cache arenaCache(ByteBufferArena arena) {
+        if (arena.isDirect()) {
+            if (directArenaCache == null) {
+                directArenaCache = arena.newCache();
+            }
+            return directArenaCache;
+        }
+        if (heapArenaCache == null) {
+            heapArenaCache = arena.newCache();
+        }
+        return heapArenaCache;
+    }
+
     @Override
     public boolean inEventLoop() {
         return Thread.currentThread() == thread;
@@ -72,32 +237,104 @@ public class NioEventLoop implements EventLoop, Runnable {
         if (this.inEventLoop()) {
             wrapperRunnable.run();
         } else {
-            if (stateUpdater.compareAndSet(this, INIT, STARTED)) {
-                this.thread.start();
+            try {
+                this.addTask(wrapperRunnable, false);
+            } catch (RejectTaskException e) {
+                future.completeExceptionally(e);
             }
-            boolean added = taskQueue.offer(wrapperRunnable);
-            if (added) {
-                selector.wakeup();
+        }
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable r) {
+        if (this.inEventLoop()) {
+            r.run();
+        } else {
+            this.addTask(r, false);
+        }
+    }
+
+    /**
+     * add the task from another thread
+     * @param force if true, the task is spilled instead of being handed to {@link RejectedTaskHandler} when overflow.
+     * @throws RejectTaskException if the task is rejected
+     */
+    private void addTask(Runnable task, boolean force) {
+        if (stateUpdater.compareAndSet(this, INIT, STARTED)) {
+            this.thread.start();
+        }
+        if (!taskQueue.offer(task)) {
+            metrics.overflowTasks.increment();
+            if (force) {
+                this.spillTask(task);
             } else {
-                future.completeExceptionally(new RejectTaskException("queue overflow"));
+                try {
+                    rejectedTaskHandler.rejected(task, this);
+                } catch (RejectTaskException e) {
+                    metrics.rejectedTasks.increment();
+                    throw e;
+                }
             }
         }
-        return future;
+        this.wakeup();
+    }
+
+    private void wakeup() {
+        // read before write, so that the producers don't contend for the cache line when the eventloop is awake
+        if (nextWakeupNanos != AWAKE && nextWakeupNanosUpdater.getAndSet(this, AWAKE) != AWAKE) {
+            selector.wakeup();
+        }
     }
 
     @Override
     public CompletableFuture<?> scheduleTask(Runnable r, int delay, TimeUnit unit) {
-        var future = new CompletableFuture<>();
-        delayTaskQueue.offer(new DelayTask<>(r, System.nanoTime() + unit.toNanos(delay), future));
-        // We must wake up the selector, in case of the selector is blocking in select() method.
-        selector.wakeup();
-        return future;
+        return this.schedule(r, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public CompletableFuture<?> scheduleAtFixedRate(Runnable r, int initialDelay, int period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0");
+        }
+        return this.schedule(r, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private ScheduledTask schedule(Runnable r, long delayNanos, long periodNanos) {
+        if (this.inEventLoop()) {
+            var task = new ScheduledTask(this, r, nanoTime + delayNanos, periodNanos);
+            timer.schedule(task);
+            return task;
+        }
+        var task = new ScheduledTask(this, r, System.nanoTime() + delayNanos, periodNanos);
+        if (stateUpdater.compareAndSet(this, INIT, STARTED)) {
+            this.thread.start();
+        }
+        scheduledTaskQueue.offer(task);
+        // Only wake up the selector if it would sleep past the deadline of the task.
+        long deadline = task.deadline - startNanos;
+        if (deadline < nextWakeupNanos && nextWakeupNanosUpdater.getAndSet(this, AWAKE) != AWAKE) {
+            selector.wakeup();
+        }
+        return task;
+    }
+
+    /**
+     * Called when the scheduled task be cancelled.
+     * In the eventloop, remove it from the timer right away; otherwise, let the eventloop remove it.
+     */
+    void cancelScheduledTask(ScheduledTask task) {
+        if (this.inEventLoop()) {
+            timer.remove(task);
+        } else {
+            scheduledTaskQueue.offer(task);
+        }
     }
 
     @Override
     public CompletableFuture<Void> close() {
         var future = new CompletableFuture<Void>();
-        this.submitTask(() -> {
+        Runnable closeTask = () -> {
             state = CLOSING;
             closedFuture.whenComplete((r, t) -> {
                 if (t != null) {
@@ -105,8 +342,13 @@ public class NioEventLoop implements EventLoop, Runnable {
                 }
                 future.complete(r);
             });
-            return null;
-        });
+        };
+        if (this.inEventLoop()) {
+            closeTask.run();
+        } else {
+            // never reject the close task
+            this.addTask(closeTask, true);
+        }
         return future;
     }
 
@@ -114,55 +356,53 @@ public class NioEventLoop implements EventLoop, Runnable {
     public void run() {
         for (;;) {
             try {
-                long selectTimeout = Long.MAX_VALUE;
-                // 0. process delay task
-                DelayTask<?> delayTask;
-                while ((delayTask = delayTaskQueue.peek()) != null) {
-                    selectTimeout = (delayTask.executeTime - System.nanoTime()) / (1000 * 1000);
-                    if (selectTimeout <= 0) {
-                        // remove task
-                        delayTaskQueue.remove();
-                        // if task be cancelled, continue next
-                        if (delayTask.future.isCancelled()) {
-                            continue;
-                        }
-                        try {
-                            delayTask.r.run();
-                        } catch (Throwable e) {
-                            log.error("run delay task e:", e);
-                        } finally {
-                            // ignore exception
-                            delayTask.future.complete(null);
-                        }
-                    } else {
-                        break;
-                    }
-                }
+                // 0. process scheduled task
+                nanoTime = System.nanoTime();
+                long timeoutNanos = this.runScheduledTasks();
 
                 // 1. process io event
                 int n;
-                if (selectTimeout <= 0) {
+                long selectStart = -1; // only set when blocking
+                if (timeoutNanos == 0 || this.hasTasks()) {
                     n = selector.selectNow();
                 } else {
-                    n = selector.select(selectTimeout);
-                }
-                if (n != 0) {
-                    var keys = selector.selectedKeys();
-                    var it = keys.iterator();
-                    while (it.hasNext()) {
-                        var key = it.next();
-                        it.remove();
-                        var attr = key.attachment();
-                        if (attr instanceof AbstractNioChannel ch) {
-                            ch.ioEvent();
+                    // announce the wakeup deadline, then check again, the tasks added before it are not woken up.
+                    nextWakeupNanos = timeoutNanos < 0 ? NONE : nanoTime - startNanos + timeoutNanos;
+                    try {
+                        if (this.hasTasks() || !scheduledTaskQueue.isEmpty()) {
+                            n = selector.selectNow();
+                        } else if (timeoutNanos < 0) {
+                            selectStart = System.nanoTime();
+                            n = selector.select();
+                        } else {
+                            selectStart = System.nanoTime();
+                            // round up, select(0) means blocking forever
+                            n = selector.select(TimeUnit.NANOSECONDS.toMillis(timeoutNanos + 999_999));
                         }
+                    } finally {
+                        // It's fine to be seen late by other threads, it only causes a redundant wakeup.
+                        nextWakeupNanosUpdater.lazySet(this, AWAKE);
                     }
                 }
+                nanoTime = System.nanoTime();
+                if (selectStart >= 0 && n == 0) {
+                    this.checkPrematureSelect(timeoutNanos, nanoTime - selectStart);
+                } else {
+                    prematureSelects = 0;
+                }
+                if (selectedKeys != null) {
+                    this.processSelectedKeysOptimized();
+                } else if (n != 0) {
+                    this.processSelectedKeys();
+                }
 
-                // 2. process task
-                Runnable task;
-                while ((task = taskQueue.poll()) != null) {
-                    task.run();
+                // 2. process task, the time is limited by the time just spent on io
+                if (ioRatio == 100) {
+                    this.runTasks(Long.MAX_VALUE);
+                } else {
+                    long ioEnd = System.nanoTime();
+                    long ioTime = ioEnd - nanoTime;
+                    this.runTasks(ioEnd + ioTime * (100 - ioRatio) / ioRatio);
                 }
             } catch (Throwable e) {
                 log.error("eventloop occur error:", e);
@@ -180,7 +420,9 @@ public class NioEventLoop implements EventLoop, Runnable {
                     // 0. close all channel
                     selector.keys().forEach(k -> {
                         try {
-                            ((NioChannel)(k.attachment())).close();
+                            if (k.attachment() instanceof NioChannel ch) {
+                                ch.close();
+                            }
                         } catch (Throwable e) {
                             log.error("close channel error:", e);
                         }
@@ -188,7 +430,7 @@ public class NioEventLoop implements EventLoop, Runnable {
 
                     // 1. try to finish all real-time tasks
                     Runnable r;
-                    while ((r = taskQueue.poll()) != null) {
+                    while ((r = taskQueue.poll()) != null || (r = spillQueue.poll()) != null) {
                         try {
                             r.run();
                         } catch (Throwable e) {
@@ -196,11 +438,17 @@ public class NioEventLoop implements EventLoop, Runnable {
                         }
                     }
 
-                    // 2. cancel all delay task
-                    DelayTask<?> task;
-                    while ((task = delayTaskQueue.poll()) != null) {
+                    // 2. cancel all scheduled task
+                    ScheduledTask task;
+                    while ((task = scheduledTaskQueue.poll()) != null) {
+                        if (task.bucket < 0) {
+                            expiredTasks.add(task);
+                        }
+                    }
+                    timer.clear(expiredTaskCollector);
+                    while ((task = expiredTasks.poll()) != null) {
                         try {
-                            task.future.cancel(true);
+                            task.cancel(true);
                         } catch (Throwable e) {
                             log.error("cancel task error:", e);
                         }
@@ -213,7 +461,15 @@ public class NioEventLoop implements EventLoop, Runnable {
                         log.error("selector close error:", e);
                     }
 
-                    // 4. notify
+                    // 4. give the cached buffers back to the pool
+                    if (heapArenaCache != null) {
+                        heapArenaCache.free();
+                    }
+                    if (directArenaCache != null) {
+                        directArenaCache.free();
+                    }
+
+                    // 5. notify
                     state = CLOSED;
                     closedFuture.complete(null);
                     break;
@@ -222,24 +478,123 @@ public class NioEventLoop implements EventLoop, Runnable {
         }
     }
 
-    @Getter
-    @AllArgsConstructor
-    public static class DelayTask<T> implements Comparable<DelayTask<T>> {
-        private Runnable r;
-        private long executeTime;
-        private CompletableFuture<T> future;
+    /**
+     * Called when a blocking select() returned without any selected key.
+     * It is premature if it returned before the timeout and nobody woke it up for a task,
+     * the selector is considered spinning if it keeps happening.
+     */
+    private void checkPrematureSelect(long timeoutNanos, long elapsedNanos) {
+        if (Thread.interrupted()) {
+            // the interrupt flag makes select() return immediately, clear it to stop spinning
+            log.warn("eventloop {} thread was interrupted, the interrupt flag is cleared", name());
+            prematureSelects = 0;
+            return;
+        }
+        if ((timeoutNanos > 0 && elapsedNanos >= timeoutNanos) || this.hasTasks() || !scheduledTaskQueue.isEmpty()) {
+            prematureSelects = 0;
+            return;
+        }
+        if (++prematureSelects >= selectorAutoRebuildThreshold && selectorAutoRebuildThreshold > 0) {
+            log.warn("select() returned prematurely {} times in a row, rebuild the selector", prematureSelects);
+            prematureSelects = 0;
+            this.rebuildSelector();
+        }
+    }
 
-        @Override
-        public int compareTo(DelayTask<T> o) {
-            // small first
-            long x = this.executeTime - o.executeTime;
-            if (x < 0) {
-                return -1;
-            } else if (x == 0){
-                return 0;
+    private void processSelectedKeysOptimized() {
+        var keys = selectedKeys.keys;
+        try {
+            for (int i = 0; i < selectedKeys.size; i++) {
+                if (keys[i].attachment() instanceof AbstractNioChannel ch) {
+                    ch.ioEvent();
+                }
+            }
+        } finally {
+            // also let the keys be collected once the channels are closed
+            selectedKeys.reset();
+        }
+    }
+
+    private void processSelectedKeys() {
+        var it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            var key = it.next();
+            it.remove();
+            if (key.attachment() instanceof AbstractNioChannel ch) {
+                ch.ioEvent();
+            }
+        }
+    }
+
+    /**
+     * Run at most {@code maxTasksPerIteration} tasks, stop early once the deadline is passed.
+     * The deadline is checked every 64 tasks since {@link System#nanoTime()} is not free,
+     * so at least 64 tasks are run if there are.
+     * The remaining tasks are run in the next loop, which doesn't block in select().
+     */
+    private void runTasks(long deadlineNanos) {
+        int ran = 0;
+        Runnable task;
+        while (ran < maxTasksPerIteration && ((task = taskQueue.poll()) != null || (task = spillQueue.poll()) != null)) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("run task error:", e);
+            }
+            if ((++ran & 63) == 0 && deadlineNanos != Long.MAX_VALUE && System.nanoTime() >= deadlineNanos) {
+                break;
+            }
+        }
+    }
+
+    private boolean hasTasks() {
+        return !taskQueue.isEmpty() || !spillQueue.isEmpty();
+    }
+
+    /**
+     * Move the scheduled tasks from other threads into the timer, then run the expired tasks.
+     * @return the nanos until the next tick of the timer should be processed, or -1 if there is no scheduled task.
+     */
+    private long runScheduledTasks() {
+        ScheduledTask task;
+        while ((task = scheduledTaskQueue.poll()) != null) {
+            if (task.isCancelled()) {
+                timer.remove(task);
+            } else if (task.bucket < 0) {
+                timer.schedule(task);
+            }
+        }
+
+        timer.expire(nanoTime, expiredTaskCollector);
+        while ((task = expiredTasks.poll()) != null) {
+            // if task be cancelled, continue next
+            if (task.isCancelled()) {
+                continue;
+            }
+            try {
+                task.r.run();
+            } catch (Throwable e) {
+                log.error("run scheduled task e:", e);
+            }
+            if (task.period > 0) {
+                if (!task.isCancelled()) {
+                    task.deadline += task.period;
+                    timer.schedule(task);
+                }
             } else {
-                return 1;
+                // ignore exception
+                task.complete(null);
             }
         }
+        return timer.nanosToNextTick(nanoTime);
+    }
+
+    private static final class EventLoopThread extends Thread {
+        private final NioEventLoop loop;
+
+        EventLoopThread(NioEventLoop loop, String name) {
+            super(loop, name);
+            this.loop = loop;
+        }
     }
 }
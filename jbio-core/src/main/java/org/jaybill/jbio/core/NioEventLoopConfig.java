@@ -0,0 +1,53 @@
+package org.jaybill.jbio.core;
+
+import lombok.Data;
+
+/**
+ * The config of the eventloops, a new instance has the default values. <br/>
+ * The eventloops copy the values when they are created, so changing it later only affects the new eventloops.
+ */
+@Data
+public class NioEventLoopConfig {
+
+    /**
+     * The capacity of the first chunk of the task queue, the queue grows chunk by chunk.
+     */
+    private int taskQueueInitialCapacity = 16;
+
+    /**
+     * The maximum number of tasks squeezed in the task queue,
+     * it will be rounded up to a power of 2.
+     */
+    private int taskQueueMaxCapacity = 1024 * 64;
+
+    /**
+     * How to handle the task when the task queue is full.
+     */
+    private RejectedTaskHandler rejectedTaskHandler = RejectedTaskHandlers.REJECT;
+
+    /**
+     * Replace the HashSet of selected keys inside the JDK selector with an array, it falls back to the
+     * normal selected keys if the JDK doesn't allow it. <br/>
+     * It needs {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}, without it there is no effect.
+     */
+    private boolean optimizeSelectedKeys = true;
+
+    /**
+     * Rebuild the selector after this many consecutive select() calls return early with nothing selected,
+     * which means the selector is spinning. 0 means never rebuild.
+     */
+    private int selectorAutoRebuildThreshold = 512;
+
+    /**
+     * The percentage of time spent on io in each loop, in (0, 100]. <br/>
+     * e.g. 50 means the tasks can run as long as the io just took, 80 means a quarter of it.
+     * 100 means there is no time limit for the tasks.
+     */
+    private int ioRatio = 50;
+
+    /**
+     * The maximum number of tasks run in each loop, the rest are left to the next loop,
+     * so that a flood of tasks can not starve the io.
+     */
+    private int maxTasksPerIteration = 4096;
+}
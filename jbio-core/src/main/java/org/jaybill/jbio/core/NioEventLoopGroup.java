@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -14,15 +15,35 @@ public class NioEventLoopGroup implements EventLoopGroup {
     private final AtomicInteger counter = new AtomicInteger(0);
 
     public NioEventLoopGroup(int n, SelectorProvider provider, String namePrefix) {
+        this(n, provider, namePrefix, new NioEventLoopConfig());
+    }
+
+    public NioEventLoopGroup(int n, SelectorProvider provider, String namePrefix, NioEventLoopConfig config) {
         loops = new NioEventLoop[n];
         for (int i = 0; i < n; i++) {
-            loops[i] = new NioEventLoop(provider, namePrefix);
+            loops[i] = new NioEventLoop(provider, namePrefix, config);
         }
     }
 
     @Override
     public NioEventLoop next() {
-        return loops[counter.getAndIncrement() % loops.length];
+        // the counter overflows to negative
+        return loops[Math.floorMod(counter.getAndIncrement(), loops.length)];
+    }
+
+    public List<NioEventLoop> loops() {
+        return List.of(loops);
+    }
+
+    /**
+     * metrics of each eventloop in the group
+     */
+    public List<NioEventLoopMetrics> metrics() {
+        var list = new ArrayList<NioEventLoopMetrics>(loops.length);
+        for (var eventloop : loops) {
+            list.add(eventloop.metrics());
+        }
+        return list;
     }
 
     @Override
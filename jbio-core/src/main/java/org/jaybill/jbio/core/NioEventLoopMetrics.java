@@ -0,0 +1,140 @@
+package org.jaybill.jbio.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gauges and counters of one {@link NioEventLoop}, they can be read from any thread.
+ */
+public class NioEventLoopMetrics {
+    private static final VarHandle READ_CALLS;
+    private static final VarHandle READ_BYTES;
+    private static final VarHandle WRITE_SPINS;
+    private static final VarHandle SEND_BUFFER_FULLS;
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            READ_CALLS = lookup.findVarHandle(NioEventLoopMetrics.class, "readCalls", long.class);
+            READ_BYTES = lookup.findVarHandle(NioEventLoopMetrics.class, "readBytes", long.class);
+            WRITE_SPINS = lookup.findVarHandle(NioEventLoopMetrics.class, "writeSpins", long.class);
+            SEND_BUFFER_FULLS = lookup.findVarHandle(NioEventLoopMetrics.class, "sendBufferFulls", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final NioEventLoop eventLoop;
+    final LongAdder overflowTasks = new LongAdder();
+    final LongAdder rejectedTasks = new LongAdder();
+    final LongAdder spilledTasks = new LongAdder();
+    final LongAdder selectorRebuilds = new LongAdder();
+    // only updated by the eventloop thread, with opaque access so that other threads see whole values
+    private long readCalls;
+    private long readBytes;
+    private long writeSpins;
+    private long sendBufferFulls;
+
+    NioEventLoopMetrics(NioEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    // called by the eventloop thread
+    void read(int bytes) {
+        READ_CALLS.setOpaque(this, readCalls + 1);
+        READ_BYTES.setOpaque(this, readBytes + bytes);
+    }
+
+    // called by the eventloop thread
+    void writeSpin() {
+        WRITE_SPINS.setOpaque(this, writeSpins + 1);
+    }
+
+    // called by the eventloop thread
+    void sendBufferFull() {
+        SEND_BUFFER_FULLS.setOpaque(this, sendBufferFulls + 1);
+    }
+
+    public String name() {
+        return eventLoop.name();
+    }
+
+    /**
+     * The approximate number of tasks waiting in the task queue.
+     */
+    public int pendingTasks() {
+        return eventLoop.pendingTasks();
+    }
+
+    /**
+     * The approximate number of tasks waiting in the spill queue.
+     */
+    public int pendingSpilledTasks() {
+        return eventLoop.pendingSpilledTasks();
+    }
+
+    /**
+     * The number of tasks which were submitted when the task queue was full.
+     */
+    public long overflowTasks() {
+        return overflowTasks.sum();
+    }
+
+    /**
+     * The number of tasks dropped by {@link RejectedTaskHandler}.
+     */
+    public long rejectedTasks() {
+        return rejectedTasks.sum();
+    }
+
+    /**
+     * The number of tasks added to the spill queue.
+     */
+    public long spilledTasks() {
+        return spilledTasks.sum();
+    }
+
+    /**
+     * The number of times the selector was rebuilt because it was spinning.
+     */
+    public long selectorRebuilds() {
+        return selectorRebuilds.sum();
+    }
+
+    /**
+     * The number of socket read calls which got some bytes.
+     */
+    public long readCalls() {
+        return (long) READ_CALLS.getOpaque(this);
+    }
+
+    /**
+     * The bytes read from all sockets of the eventloop.
+     */
+    public long readBytes() {
+        return (long) READ_BYTES.getOpaque(this);
+    }
+
+    /**
+     * The number of write retries after the TCP send buffer is full, see {@link WriteBehavior#getSpinCount()}.
+     */
+    public long writeSpins() {
+        return (long) WRITE_SPINS.getOpaque(this);
+    }
+
+    /**
+     * The number of writes which left messages in the SendBuffer because the TCP send buffer is full.
+     */
+    public long sendBufferFulls() {
+        return (long) SEND_BUFFER_FULLS.getOpaque(this);
+    }
+
+    /**
+     * The average number of read calls per MB read, the lower the better.
+     * It depends on the size of the read buffer, see {@link ByteBufferAllocateStrategy}.
+     */
+    public double readCallsPerMB() {
+        long bytes = this.readBytes();
+        return bytes == 0 ? 0 : (double) this.readCalls() * 1024 * 1024 / bytes;
+    }
+}
@@ -8,8 +8,7 @@ import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.channels.*;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,7 +28,12 @@ public class NioServerSocketChannel extends AbstractNioChannel implements NioCha
     private final ChannelPipeline pipeline;
 
     private ServerSocketChannel serverSocketChannel;
-    private SelectionKey selectionKey;
+    // if false, stop accepting the new connections
+    private volatile boolean autoRead = true;
+    // only accessed in the eventloop
+    private boolean readPending = false;
+    // the connections accepted by one OP_ACCEPT event, grouped by the worker, only accessed in the eventloop
+    private final Map<NioEventLoop, List<SocketChannel>> accepted = new IdentityHashMap<>();
 
     private volatile CompletableFuture<NioServerSocketChannel> stateFuture;
     private final AtomicInteger state = new AtomicInteger(INIT);
@@ -38,6 +42,10 @@ public class NioServerSocketChannel extends AbstractNioChannel implements NioCha
     private static final int ACTIVE = 2;
     private static final int CLOSED = -1;
 
+    /**
+     * @param workerGroup the eventloops of the accepted connections,
+     *                    or null to serve them by the eventloop of the server channel, see {@link JBIOServer#startReusePort}
+     */
     NioServerSocketChannel(
             SelectorProvider provider,
             NioEventLoop eventLoop,
@@ -100,6 +108,25 @@ public class NioServerSocketChannel extends AbstractNioChannel implements NioCha
         unsafe.close();
     }
 
+    @Override
+    public void setAutoRead(boolean autoRead) {
+        this.autoRead = autoRead;
+        eventLoop.execute(unsafe::updateAcceptInterest);
+    }
+
+    @Override
+    public boolean isAutoRead() {
+        return autoRead;
+    }
+
+    @Override
+    public void read() {
+        eventLoop.execute(() -> {
+            readPending = true;
+            unsafe.updateAcceptInterest();
+        });
+    }
+
     @Override
     public InetSocketAddress localAddress() {
         try {
@@ -213,7 +240,7 @@ public class NioServerSocketChannel extends AbstractNioChannel implements NioCha
         public void register() {
             try {
                 selectionKey = serverSocketChannel.register(eventLoop.selector(),
-                        SelectionKey.OP_ACCEPT, NioServerSocketChannel.this);
+                        acceptInterest(), NioServerSocketChannel.this);
                 pipeline.fireChannelRegistered();
             } catch (ClosedChannelException e) {
                 ChannelUtil.forceClose(serverSocketChannel);
@@ -236,22 +263,77 @@ public class NioServerSocketChannel extends AbstractNioChannel implements NioCha
 
         @Override
         public void accept() {
-            SocketChannel ch;
+            int maxAcceptCount = Math.max(1, bossConfig.getMaxAcceptCountPerLoop());
             try {
-                ch = serverSocketChannel.accept();
-            } catch (IOException e) {
-                pipeline.fireChannelException(new AcceptSocketChannelException(e));
+                for (int i = 0; i < maxAcceptCount; i++) {
+                    SocketChannel ch;
+                    try {
+                        ch = serverSocketChannel.accept();
+                    } catch (IOException e) {
+                        pipeline.fireChannelException(new AcceptSocketChannelException(e));
+                        break;
+                    }
+                    if (ch == null) {
+                        break;
+                    }
+                    var worker = workerGroup != null ? workerGroup.next() : eventLoop;
+                    accepted.computeIfAbsent(worker, k -> new ArrayList<>()).add(ch);
+                    readPending = false;
+                    if (!autoRead) {
+                        break;
+                    }
+                }
+            } finally {
+                this.updateAcceptInterest();
+                this.handOver();
+            }
+        }
+
+        // one task for the connections of each worker, the configs are created by the worker,
+        // and the task runs at once if the worker is this eventloop
+        private void handOver() {
+            if (accepted.isEmpty()) {
                 return;
             }
+            for (var entry : accepted.entrySet()) {
+                var worker = entry.getKey();
+                var chs = entry.getValue();
+                try {
+                    worker.execute(() -> {
+                        for (var ch : chs) {
+                            NioSocketChannel.newAcceptModeInstance(
+                                    provider, ch, worker, workerConfigTemplate.create(), workerInitializer).open();
+                        }
+                    });
+                } catch (RejectTaskException e) {
+                    log.warn("worker rejects {} connections: {}", chs.size(), e.getMessage());
+                    chs.forEach(ChannelUtil::forceClose);
+                }
+            }
+            accepted.clear();
+        }
 
-            var childCh = NioSocketChannel.newAcceptModeInstance(
-                    provider, ch, workerGroup.next(), workerConfigTemplate.create(), workerInitializer);
-            childCh.open();
+        private int acceptInterest() {
+            return autoRead || readPending ? SelectionKey.OP_ACCEPT : 0;
+        }
+
+        // in the eventloop
+        private void updateAcceptInterest() {
+            if (selectionKey != null && selectionKey.isValid()) {
+                selectionKey.interestOps(acceptInterest());
+            }
         }
 
         private void setOption(SocketOption<?> k, Object v) throws IOException {
             if (k == SocketOption.SO_RCVBUF) {
                 serverSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, (int) v);
+            } else if (k == SocketOption.SO_REUSEADDR) {
+                serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, (boolean) v);
+            } else if (k == SocketOption.SO_REUSE_PORT) {
+                if (!serverSocketChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IOException("SO_REUSEPORT is not supported");
+                }
+                serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, (boolean) v);
             }
         }
     }
@@ -1,7 +1,7 @@
 package org.jaybill.jbio.core;
 
 import lombok.extern.slf4j.Slf4j;
-import org.jaybill.jbio.core.util.Pair;
+import org.jaybill.jbio.core.ex.ChannelClosedException;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -34,9 +34,20 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
     private final SelectorProvider provider;
 
     private SocketChannel socketChannel;
-    private SelectionKey selectionKey;
     private SendBuffer sendBuffer;
     private boolean channelUnWritable = false;
+    // channelSendBufferFull has been fired, and the SendBuffer has not been drained yet
+    private boolean sendBufferFull = false;
+    // the learned spin count of the adaptive spin
+    private int spinLimit = -1;
+    // the interest ops of selectionKey, only updated in the eventloop
+    private int interestOps;
+    private volatile boolean autoRead;
+    // read() has been requested and no data has been read since, only accessed in the eventloop
+    private boolean readPending = false;
+    // reused by the gathering writes
+    private Object[] writeMsgs = new Object[8];
+    private ByteBuffer[] writeBufs = new ByteBuffer[8];
 
     private volatile CompletableFuture<NioSocketChannel> stateFuture;
     private final AtomicInteger state = new AtomicInteger(INIT);
@@ -75,6 +86,7 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
         this.remoteAddress = remoteAddress;
         this.mode = mode;
         this.eventLoop = eventLoop;
+        this.autoRead = workerConfig.getReadBehavior().isAutoRead();
         this.pipeline = new DefaultChannelPipeline(new HeadHandler(), new TailHandler(), this, eventLoop);
     }
 
@@ -124,6 +136,25 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
         unsafe.close();
     }
 
+    @Override
+    public void setAutoRead(boolean autoRead) {
+        this.autoRead = autoRead;
+        eventLoop.execute(unsafe::updateReadInterest);
+    }
+
+    @Override
+    public boolean isAutoRead() {
+        return autoRead;
+    }
+
+    @Override
+    public void read() {
+        eventLoop.execute(() -> {
+            readPending = true;
+            unsafe.updateReadInterest();
+        });
+    }
+
     @Override
     public InetSocketAddress localAddress() {
         try {
@@ -261,16 +292,16 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
                     case CONNECT_MODE -> {
                         if (socketChannel.isConnected()) {
                             // interest read event
-                            selectionKey.interestOps(SelectionKey.OP_READ);
+                            setInterestOps(readInterest());
                             pipeline.fireChannelRegistered();
                             pipeline.fireChannelConnected();
                         } else {
-                            selectionKey.interestOps(SelectionKey.OP_CONNECT);
+                            setInterestOps(SelectionKey.OP_CONNECT);
                             pipeline.fireChannelRegistered();
                         }
                     }
                     case ACCEPT_MODE -> {
-                        selectionKey.interestOps(SelectionKey.OP_READ);
+                        setInterestOps(readInterest());
                         pipeline.fireChannelRegistered();
                     }
                 }
@@ -283,6 +314,9 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
         @Override
         public void close() {
             ChannelUtil.forceClose(socketChannel);
+            if (sendBuffer != null) {
+                sendBuffer.releaseAll(new ChannelClosedException());
+            }
             // only fire once
             if (state.get() != CLOSED) {
                 try {
@@ -311,7 +345,7 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
             if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
                 try {
                     socketChannel.finishConnect();
-                    selectionKey.interestOps(SelectionKey.OP_READ);
+                    setInterestOps(readInterest());
                     pipeline.fireChannelConnected();
                 } catch (IOException e) {
                     pipeline.fireChannelException(e);
@@ -327,25 +361,47 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
                 try {
                     int maxReadCount = workerConfig.getReadBehavior().getMaxReadCountPerLoop();
                     var strategy = workerConfig.getReadBehavior().getStrategy();
+                    var metrics = eventLoop.metrics();
+                    boolean readSome = false;
+                    boolean eof = false;
                     for (int i = 0; i < maxReadCount; i++) {
                         var buf = strategy.allocate();
                         int available = buf.remaining();
-                        int c = socketChannel.read(buf);
+                        int c;
+                        try {
+                            c = socketChannel.read(buf);
+                            if (c > 0) {
+                                strategy.record(c);
+                                metrics.read(c);
+                                readSome = true;
+                                readPending = false;
+                                buf.flip();
+                                pipeline.fireChannelRead(buf);
+                            }
+                        } finally {
+                            // the pipeline has handled the buffer synchronously
+                            strategy.release(buf);
+                        }
                         if (c == -1) {
-                            this.close();
+                            eof = true;
                             break;
                         } else if (c == 0) {
-                            // release buf
                             log.debug("read length is 0");
                             break;
-                        } else if (c > 0) {
-                            buf.flip();
-                            pipeline.fireChannelRead(buf);
-                            if (c < available) {
-                                break;
-                            }
+                        } else if (c < available || !(autoRead || readPending)) {
+                            // the handlers may have paused the reading
+                            break;
                         }
                     }
+                    // once per read loop, so that handlers can flush the responses of all the reads at once
+                    if (readSome) {
+                        pipeline.fireChannelReadComplete();
+                    }
+                    if (eof) {
+                        this.close();
+                    } else {
+                        this.updateReadInterest();
+                    }
                 } catch (IOException e) {
                     this.close();
                 } catch (Throwable e) {
@@ -357,52 +413,74 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
 
         @Override
         public void write(boolean flush) {
+            if (!selectionKey.isValid()) {
+                // closed, the SendBuffer has been released
+                return;
+            }
             int readyOps = selectionKey.readyOps();
             if (flush || (readyOps & SelectionKey.OP_WRITE) != 0) {
+                if (sendBuffer.isEmpty()) {
+                    // nothing to flush
+                    setInterestOps(interestOps & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                var writeBehavior = workerConfig.getWriteBehavior();
+                int max = Math.min(writeBehavior.getMaxBufferNumPerWrite(), sendBuffer.size());
+                this.ensureWriteArrays(max);
+                var msgs = writeMsgs;
+                var bufs = writeBufs;
+                int n = 0;
+                Throwable failure = null;
                 try {
-                    var writeBehavior = workerConfig.getWriteBehavior();
-                    var maxBufferNum = writeBehavior.getMaxBufferNumPerWrite();
-                    ByteBuffer[] waitForSendBufArray = new ByteBuffer[Math.min(maxBufferNum, sendBuffer.size())];
-
-                    // collect to an array
-                    for (int i = 0; i < waitForSendBufArray.length; i++) {
-                        waitForSendBufArray[i] = sendBuffer.remove();
-                    }
+                    if (SendBuffer.region(sendBuffer.peek()) != null) {
+                        // a file region is written alone
+                        msgs[n++] = sendBuffer.remove();
+                        if (this.transferRegion(SendBuffer.region(msgs[0]), writeBehavior)) {
+                            SendBuffer.written(msgs[0]);
+                        } else {
+                            this.sendBufferFull();
+                            sendBuffer.addFirst(msgs[0]);
+                        }
+                        msgs[0] = null;
+                    } else {
+                        // collect the buffers before the next file region to an array
+                        while (n < max && SendBuffer.region(sendBuffer.peek()) == null) {
+                            msgs[n] = sendBuffer.remove();
+                            bufs[n] = SendBuffer.buffer(msgs[n]);
+                            n++;
+                        }
 
-                    // first write
-                    socketChannel.write(waitForSendBufArray, 0, waitForSendBufArray.length);
-
-                    // Check the writing progress.
-                    // Because it is possible that not all writes were made due to the TCP send buffer being full.
-                    var pair = this.checkWriteProcess(waitForSendBufArray);
-                    if (pair != null) {
-                        boolean drainAll = false;
-                        // spin write
-                        for (int j = 0; j < writeBehavior.getSpinCount(); j++) {
-                            socketChannel.write(waitForSendBufArray, pair.left(), pair.right());
-                            pair = this.checkWriteProcess(waitForSendBufArray);
-                            if (pair == null) {
-                                drainAll = true;
-                                break;
+                        // first write
+                        long written = socketChannel.write(bufs, 0, n);
+
+                        // Check the writing progress.
+                        // Because it is possible that not all writes were made due to the TCP send buffer being full.
+                        int left = firstUnwritten(bufs, 0, n);
+                        if (left < n) {
+                            left = this.spinWrite(bufs, left, n, written, writeBehavior);
+                            if (left < n) {
+                                this.sendBufferFull();
+                                // return to SendBuffer instance
+                                for (int i = n - 1; i >= left; i--) {
+                                    sendBuffer.addFirst(msgs[i]);
+                                    msgs[i] = null;
+                                }
                             }
                         }
-                        if (!drainAll) {
-                            log.warn("TCP send buffer is full, wait util next event loop, address:{}",
-                                    socketChannel.getRemoteAddress());
-                            pipeline.fireChannelSendBufferFull();
-                            // return to SendBuffer instance
-                            for (int i = pair.right() - 1; i >= pair.left(); i--) {
-                                sendBuffer.addFirst(waitForSendBufArray[i]);
-                            }
+                        // the messages have been fully written
+                        for (int i = 0; i < left; i++) {
+                            SendBuffer.written(msgs[i]);
+                            msgs[i] = null;
                         }
                     }
 
                     if (sendBuffer.isEmpty()) {
                         // All byte be sent, cancel the OP_WRITE
-                        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+                        setInterestOps(interestOps & ~SelectionKey.OP_WRITE);
+                        sendBufferFull = false;
                     } else {
                         // add OP_WRITE to interest key
-                        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                        setInterestOps(interestOps | SelectionKey.OP_WRITE);
                     }
 
                     // edge trigger channelWritable()
@@ -411,13 +489,172 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
                         pipeline.fireChannelWritable();
                     }
                 } catch (IOException e) {
+                    failure = e;
                     this.close();
                 } catch (Throwable e) {
+                    failure = e;
                     pipeline.fireChannelException(e);
+                } finally {
+                    // drop the messages taken out when the write failed, and don't keep references to the buffers
+                    for (int i = 0; i < n; i++) {
+                        if (msgs[i] != null) {
+                            SendBuffer.discard(msgs[i], failure);
+                            msgs[i] = null;
+                        }
+                        bufs[i] = null;
+                    }
                 }
             }
         }
 
+        // wait for OP_WRITE, only fire once until the SendBuffer is drained
+        private void sendBufferFull() {
+            eventLoop.metrics().sendBufferFull();
+            if (!sendBufferFull) {
+                sendBufferFull = true;
+                pipeline.fireChannelSendBufferFull();
+            }
+        }
+
+        // transfer the file region, and retry while the socket takes bytes, return true if it is fully transferred
+        private boolean transferRegion(FileRegion region, WriteBehavior writeBehavior) throws IOException {
+            var metrics = eventLoop.metrics();
+            long written = region.transferTo(socketChannel);
+            if (region.remaining() == 0) {
+                return true;
+            }
+            boolean adaptive = writeBehavior.isAdaptiveSpin();
+            if (adaptive && written == 0) {
+                // still full, spinning more is useless
+                this.updateSpinLimit(false, writeBehavior.getSpinCount());
+                return false;
+            }
+            int limit = adaptive ? this.spinLimit(writeBehavior.getSpinCount()) : writeBehavior.getSpinCount();
+            for (int j = 0; j < limit && region.remaining() > 0; j++) {
+                metrics.writeSpin();
+                if (region.transferTo(socketChannel) == 0 && adaptive) {
+                    break;
+                }
+            }
+            if (adaptive) {
+                this.updateSpinLimit(region.remaining() == 0, writeBehavior.getSpinCount());
+            }
+            return region.remaining() == 0;
+        }
+
+        /**
+         * Retry writing after the TCP send buffer is full, return the index of the first unwritten buffer.
+         * @param written the bytes written by the first write
+         */
+        private int spinWrite(ByteBuffer[] bufs, int left, int n, long written, WriteBehavior writeBehavior)
+                throws IOException {
+            var metrics = eventLoop.metrics();
+            int spinCount = writeBehavior.getSpinCount();
+            if (!writeBehavior.isAdaptiveSpin()) {
+                for (int j = 0; j < spinCount && left < n; j++) {
+                    metrics.writeSpin();
+                    socketChannel.write(bufs, left, n - left);
+                    left = firstUnwritten(bufs, left, n);
+                }
+                return left;
+            }
+
+            if (written != 0) {
+                int limit = this.spinLimit(spinCount);
+                for (int j = 0; j < limit && left < n; j++) {
+                    metrics.writeSpin();
+                    if (socketChannel.write(bufs, left, n - left) == 0) {
+                        // still full, spinning more is useless
+                        break;
+                    }
+                    left = firstUnwritten(bufs, left, n);
+                }
+            }
+            this.updateSpinLimit(left == n, spinCount);
+            return left;
+        }
+
+        // the learned number of retries, see WriteBehavior#isAdaptiveSpin()
+        private int spinLimit(int spinCount) {
+            if (spinLimit < 0 || spinLimit > spinCount) {
+                spinLimit = spinCount;
+            }
+            return spinLimit;
+        }
+
+        private void updateSpinLimit(boolean drained, int spinCount) {
+            int limit = this.spinLimit(spinCount);
+            if (drained) {
+                spinLimit = Math.min(spinCount, Math.max(1, limit << 1));
+            } else {
+                spinLimit = Math.max(Math.min(1, spinCount), limit >> 1);
+            }
+        }
+
+        /**
+         * Write the message to the socket directly, the SendBuffer must be empty. <br/>
+         * The bytes left over are put into the SendBuffer, and written on OP_WRITE.
+         */
+        void writeThrough(Object msg, WritePromise promise) {
+            var buf = ReleaseUtil.buffer(msg);
+            try {
+                socketChannel.write(buf);
+            } catch (Throwable e) {
+                ReleaseUtil.safeRelease(msg);
+                if (promise != null) {
+                    promise.completeExceptionally(e);
+                }
+                if (e instanceof IOException) {
+                    this.close();
+                } else {
+                    pipeline.fireChannelException(e);
+                }
+                return;
+            }
+            if (buf.hasRemaining()) {
+                addSendBuffer(msg, promise);
+                this.sendBufferFull();
+                setInterestOps(interestOps | SelectionKey.OP_WRITE);
+            } else {
+                ReleaseUtil.safeRelease(msg);
+                if (promise != null) {
+                    promise.complete(null);
+                }
+            }
+        }
+
+        // the arrays are reused by every write of the channel, and grow up to maxBufferNumPerWrite
+        private void ensureWriteArrays(int n) {
+            if (writeBufs.length < n) {
+                // n <= maxBufferNumPerWrite
+                int len = Math.min(Math.max(n, writeBufs.length << 1),
+                        workerConfig.getWriteBehavior().getMaxBufferNumPerWrite());
+                writeMsgs = new Object[len];
+                writeBufs = new ByteBuffer[len];
+            }
+        }
+
+        private int readInterest() {
+            return autoRead || readPending ? SelectionKey.OP_READ : 0;
+        }
+
+        // in the eventloop, stop or resume selecting OP_READ by the autoRead and the read() requests
+        private void updateReadInterest() {
+            if (selectionKey == null || !selectionKey.isValid()
+                    || (interestOps & SelectionKey.OP_CONNECT) != 0) {
+                // not registered or connected yet, or closed
+                return;
+            }
+            setInterestOps((interestOps & ~SelectionKey.OP_READ) | readInterest());
+        }
+
+        private void setInterestOps(int ops) {
+            if (ops != interestOps) {
+                interestOps = ops;
+                selectionKey.interestOps(ops);
+            }
+        }
+
         private void setOption(SocketOption<?> k, Object v) throws IOException {
             if (k == SocketOption.SO_KEEPALIVE) {
                 socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, (boolean) v);
@@ -436,23 +673,24 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
             }
         }
 
-        // If everything has been written, return null.
-        private Pair<Integer, Integer> checkWriteProcess(ByteBuffer[] srcs) {
-            Integer left = null;
-            // We assume that in the vast majority of cases everything can be sent in its entirety,
-            // so we attempt to find the first incomplete transmission from the end to the beginning.
-            for (int i = srcs.length - 1; i >= 0; i--) {
-                var buf = srcs[i];
-                if (!buf.hasRemaining()) {
-                    break;
-                } else {
-                    left = i;
+        // the index of the first buffer which has not been fully written, or {@code to} if all have been written
+        private static int firstUnwritten(ByteBuffer[] bufs, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bufs[i].hasRemaining()) {
+                    return i;
                 }
             }
-            if (left != null) {
-                return Pair.of(left, srcs.length);
-            }
-            return null;
+            return to;
+        }
+    }
+
+    // queue the message, and edge trigger channelUnWritable() at the high watermark
+    private void addSendBuffer(Object msg, WritePromise promise) {
+        sendBuffer.add(msg, promise);
+        var writeBehavior = workerConfig.getWriteBehavior();
+        if (!channelUnWritable && writeBehavior.getHighWatermark() <= sendBuffer.unsentBytes()) {
+            channelUnWritable = true;
+            pipeline.fireChannelUnWritable();
         }
     }
 
@@ -464,14 +702,25 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
         }
 
         @Override
-        public void write(ChannelHandlerContext ctx, Object b) {
-            var buf = (ByteBuffer) b;
-            sendBuffer.add(buf);
-            var writeBehavior = workerConfig.getWriteBehavior();
-            if (!channelUnWritable && writeBehavior.getHighWatermark() <= sendBuffer.unsentBytes()) {
-                channelUnWritable = true;
-                pipeline.fireChannelUnWritable();
+        public void write(ChannelHandlerContext ctx, Object msg) {
+            var promise = ctx.writePromise();
+            this.checkPromise(msg, promise);
+            if (ReleaseUtil.buffer(msg) == null && !(msg instanceof FileRegion)) {
+                ReleaseUtil.safeRelease(msg);
+                var e = new JBIOException("unsupported message type: " + msg.getClass().getName());
+                if (promise != null) {
+                    promise.completeExceptionally(e);
+                }
+                throw e;
             }
+            if (state.get() == CLOSED) {
+                ReleaseUtil.safeRelease(msg);
+                if (promise != null) {
+                    promise.completeExceptionally(new ChannelClosedException());
+                }
+                return;
+            }
+            addSendBuffer(msg, promise);
         }
 
         @Override
@@ -481,58 +730,132 @@ public class NioSocketChannel extends AbstractNioChannel implements NioChannel
 
         @Override
         public void writeAndFlush(ChannelHandlerContext ctx, Object buf) {
+            this.checkPromise(buf, ctx.writePromise());
+            if (workerConfig.getWriteBehavior().isWriteThrough() && sendBuffer.isEmpty()
+                    && ReleaseUtil.buffer(buf) != null && state.get() != CLOSED && socketChannel.isConnected()) {
+                unsafe.writeThrough(buf, ctx.writePromise());
+                return;
+            }
             this.write(ctx, buf);
             this.flush(ctx);
         }
+
+        // a completed promise can't tell the result of one more write
+        private void checkPromise(Object msg, WritePromise promise) {
+            if (promise != null && promise.isDone()) {
+                ReleaseUtil.safeRelease(msg);
+                throw new JBIOException("the write promise is already completed, it can not be reused");
+            }
+        }
     }
 
     private final class TailHandler extends DefaultChannelDuplexHandler {
 
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object o) {
-            if (!(o instanceof ByteBuffer)) {
-                return;
-            }
-            var buffer = (ByteBuffer) o;
-            // release buffer
+            // no handler consumes it, release it if it is ref counted.
+            // a plain ByteBuffer is not released here, a read one is only valid during channelRead.
+            ReleaseUtil.safeRelease(o);
         }
     }
 
-    private final class SendBuffer {
-        private Deque<ByteBuffer> bufferQueue;
-        private volatile int unsentBytes = 0;
+    // a message written with a promise
+    private record PromisedMessage(Object msg, WritePromise promise) {}
+
+    /**
+     * The messages waiting to be sent, each of them is a ByteBuffer, a {@link RefCountedByteBuffer} or a {@link FileRegion},
+     * or a {@link PromisedMessage} wrapping one if it was written with a promise.
+     */
+    private static final class SendBuffer {
+        private Deque<Object> bufferQueue;
+        private volatile long unsentBytes = 0;
 
         public SendBuffer() {
             this.bufferQueue = new ArrayDeque<>(16);
         }
 
-        public void add(ByteBuffer buf) {
-            bufferQueue.offer(buf);
-            unsentBytes += buf.remaining();
+        public void add(Object msg, WritePromise promise) {
+            Object entry = msg;
+            if (promise != null) {
+                promise.retain();
+                entry = new PromisedMessage(msg, promise);
+            }
+            bufferQueue.offer(entry);
+            unsentBytes += bytes(entry);
+        }
+
+        // put back an entry removed by remove()
+        public void addFirst(Object entry) {
+            bufferQueue.offerFirst(entry);
+            unsentBytes += bytes(entry);
+        }
+
+        public Object remove() {
+            var entry = bufferQueue.poll();
+            if (entry != null) {
+                unsentBytes -= bytes(entry);
+            }
+            return entry;
         }
 
-        public void addFirst(ByteBuffer buf) {
-            bufferQueue.offerFirst(buf);
-            unsentBytes += buf.remaining();
+        public Object peek() {
+            return bufferQueue.peek();
         }
 
-        public ByteBuffer remove() {
-            var buf = bufferQueue.poll();
-            if (buf != null) {
-                unsentBytes -= buf.remaining();
+        // the channel is closed, drop all unsent messages
+        public void releaseAll(Throwable cause) {
+            Object entry;
+            while ((entry = bufferQueue.poll()) != null) {
+                discard(entry, cause);
+            }
+            unsentBytes = 0;
+        }
+
+        static ByteBuffer buffer(Object entry) {
+            return ReleaseUtil.buffer(entry instanceof PromisedMessage pm ? pm.msg() : entry);
+        }
+
+        // the file region of the entry, or null if it is a buffer
+        static FileRegion region(Object entry) {
+            var msg = entry instanceof PromisedMessage pm ? pm.msg() : entry;
+            return msg instanceof FileRegion region ? region : null;
+        }
+
+        static long bytes(Object entry) {
+            var region = region(entry);
+            return region != null ? region.remaining() : buffer(entry).remaining();
+        }
+
+        // the entry has been fully written
+        static void written(Object entry) {
+            if (entry instanceof PromisedMessage pm) {
+                ReleaseUtil.safeRelease(pm.msg());
+                pm.promise().written();
+            } else {
+                ReleaseUtil.safeRelease(entry);
+            }
+        }
+
+        // the entry will never be written
+        static void discard(Object entry, Throwable cause) {
+            if (entry instanceof PromisedMessage pm) {
+                ReleaseUtil.safeRelease(pm.msg());
+                pm.promise().completeExceptionally(cause != null ? cause : new ChannelClosedException());
+            } else {
+                ReleaseUtil.safeRelease(entry);
             }
-            return buf;
         }
 
+        // by the entries, the zero-length or fully sent entries are still waiting for written()
         public boolean isEmpty() {
-            return unsentBytes == 0;
+            return bufferQueue.isEmpty();
         }
 
         public int size() {
             return bufferQueue.size();
         }
 
-        public int unsentBytes() {
+        public long unsentBytes() {
             return unsentBytes;
         }
     }
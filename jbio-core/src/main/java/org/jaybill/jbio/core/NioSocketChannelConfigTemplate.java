@@ -12,28 +12,41 @@ public class NioSocketChannelConfigTemplate extends NioChannelConfigTemplate {
 
     // read behavior
     private int maxReadCountPerLoop;
+    private boolean autoRead = true;
     private Class<? extends ByteBufferAllocateStrategy> strategyCls;
+    // the read buffer sizes of AdaptiveByteBufferAllocateStrategy
+    private int minReadBufferSize;
+    private int initialReadBufferSize;
+    private int maxReadBufferSize;
 
     // write behavior
     private int spinCount;
+    private boolean adaptiveSpin;
     private int maxBufferNumPerWrite;
     private int highWatermark;
     private int lowWatermark;
+    private boolean writeThrough;
 
     public static final NioSocketChannelConfigTemplate DEFAULT = new NioSocketChannelConfigTemplate();
     static {
         DEFAULT.setOptions(new ConcurrentHashMap<>());
-        DEFAULT.setAllocatorCls(UnpooledByteBufferAllocator.class);
+        DEFAULT.setAllocatorCls(PooledByteBufferAllocator.class);
 
         // read
         DEFAULT.setMaxReadCountPerLoop(100);
-        DEFAULT.setStrategyCls(FixInstanceByteBufferAllocateStrategy.class);
+        DEFAULT.setAutoRead(true);
+        DEFAULT.setStrategyCls(AdaptiveByteBufferAllocateStrategy.class);
+        DEFAULT.setMinReadBufferSize(AdaptiveByteBufferAllocateStrategy.DEFAULT_MIN_SIZE);
+        DEFAULT.setInitialReadBufferSize(AdaptiveByteBufferAllocateStrategy.DEFAULT_INITIAL_SIZE);
+        DEFAULT.setMaxReadBufferSize(AdaptiveByteBufferAllocateStrategy.DEFAULT_MAX_SIZE);
 
         // write
         DEFAULT.setSpinCount(100);
+        DEFAULT.setAdaptiveSpin(true);
         DEFAULT.setMaxBufferNumPerWrite(100);
         DEFAULT.setHighWatermark(1024 * 1024 * 16);
         DEFAULT.setLowWatermark(1024 * 1024 * 8);
+        DEFAULT.setWriteThrough(false);
     }
 
     @Override
@@ -59,9 +72,15 @@ public class NioSocketChannelConfigTemplate extends NioChannelConfigTemplate {
         // read behavior
         var readBehavior = new ReadBehavior();
         readBehavior.setMaxReadCountPerLoop(maxReadCountPerLoop);
+        readBehavior.setAutoRead(autoRead);
         ByteBufferAllocateStrategy strategy;
         try {
-            strategy = strategyCls.getDeclaredConstructor(ByteBufferAllocator.class).newInstance(allocator);
+            if (strategyCls == AdaptiveByteBufferAllocateStrategy.class) {
+                strategy = new AdaptiveByteBufferAllocateStrategy(
+                        allocator, minReadBufferSize, initialReadBufferSize, maxReadBufferSize);
+            } else {
+                strategy = strategyCls.getDeclaredConstructor(ByteBufferAllocator.class).newInstance(allocator);
+            }
         } catch (Exception e) {
             log.warn("can not create strategy, use FixLengthByteBufferAllocateStrategy, e:", e);
             strategy = new FixInstanceByteBufferAllocateStrategy(allocator);
@@ -72,9 +91,11 @@ public class NioSocketChannelConfigTemplate extends NioChannelConfigTemplate {
         // write behavior
         var writeBehavior = new WriteBehavior();
         writeBehavior.setSpinCount(spinCount);
+        writeBehavior.setAdaptiveSpin(adaptiveSpin);
         writeBehavior.setMaxBufferNumPerWrite(maxBufferNumPerWrite);
         writeBehavior.setLowWatermark(lowWatermark);
         writeBehavior.setHighWatermark(highWatermark);
+        writeBehavior.setWriteThrough(writeThrough);
         config.setWriteBehavior(writeBehavior);
         return config;
     }
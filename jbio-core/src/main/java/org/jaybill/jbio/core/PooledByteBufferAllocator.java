@@ -0,0 +1,43 @@
+package org.jaybill.jbio.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocate heap ByteBuffers from a pool shared by all instances, see {@link ByteBufferArena}. <br/>
+ * Only {@link #allocateRefCounted(int)} takes the buffer from the pool, its capacity is rounded up to the size class,
+ * and its limit is the requested capacity. The buffer goes back to the pool by the last
+ * {@link RefCountedByteBuffer#release()}, e.g. once it has been flushed, and must not be used after that. <br/>
+ * {@link #allocate(int)} returns a buffer left to GC, since a plain ByteBuffer has no owner to give it back.
+ * Use it for channels by {@code NioSocketChannelConfigTemplate.setAllocatorCls(PooledByteBufferAllocator.class)}.
+ */
+public class PooledByteBufferAllocator implements ByteBufferAllocator {
+
+    private static final ByteBufferArena HEAP_ARENA = new ByteBufferArena(false);
+
+    private final ByteBufferArena arena;
+
+    public PooledByteBufferAllocator() {
+        this(HEAP_ARENA);
+    }
+
+    PooledByteBufferAllocator(ByteBufferArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        return arena.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public RefCountedByteBuffer allocateRefCounted(int capacity) {
+        return arena.allocate(capacity, this);
+    }
+
+    /**
+     * The metrics of the pool, it is shared by all instances of the same class.
+     */
+    public ByteBufferArenaMetrics metrics() {
+        return arena.metrics;
+    }
+}
@@ -0,0 +1,15 @@
+package org.jaybill.jbio.core;
+
+/**
+ * Allocate direct ByteBuffers from a pool shared by all instances, the socket can read and write them
+ * without copying. <br/>
+ * See {@link PooledByteBufferAllocator}.
+ */
+public class PooledDirectByteBufferAllocator extends PooledByteBufferAllocator {
+
+    private static final ByteBufferArena DIRECT_ARENA = new ByteBufferArena(true);
+
+    public PooledDirectByteBufferAllocator() {
+        super(DIRECT_ARENA);
+    }
+}
@@ -10,4 +10,8 @@ import lombok.NoArgsConstructor;
 public class ReadBehavior {
     private int maxReadCountPerLoop;
     private ByteBufferAllocateStrategy strategy;
+    /**
+     * The initial value of {@link NioChannel#isAutoRead()}.
+     */
+    private boolean autoRead;
 }
@@ -0,0 +1,83 @@
+package org.jaybill.jbio.core;
+
+import org.jaybill.jbio.core.ex.IllegalReferenceCountException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A ByteBuffer owned by reference count, it is given back to its allocator when the count reaches 0. <br/>
+ * It can be written to the channel as well as a ByteBuffer, and it is released after it has been flushed.
+ */
+public final class RefCountedByteBuffer implements ReferenceCounted {
+
+    private static final AtomicIntegerFieldUpdater<RefCountedByteBuffer> refCntUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(RefCountedByteBuffer.class, "refCnt");
+    private volatile int refCnt = 1;
+
+    private final ByteBuffer buffer;
+    private final ByteBufferAllocator allocator;
+    // the slot of the pool if the buffer is pooled, see ByteBufferArena
+    private final ByteBufferArena.Slot slot;
+
+    public RefCountedByteBuffer(ByteBuffer buffer, ByteBufferAllocator allocator) {
+        this(buffer, allocator, null);
+    }
+
+    RefCountedByteBuffer(ByteBuffer buffer, ByteBufferAllocator allocator, ByteBufferArena.Slot slot) {
+        this.buffer = buffer;
+        this.allocator = allocator;
+        this.slot = slot;
+    }
+
+    /**
+     * the underlying buffer, don't use it after being released
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public RefCountedByteBuffer retain() {
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt <= 0) {
+                throw new IllegalReferenceCountException("buffer has been released");
+            }
+            if (refCntUpdater.compareAndSet(this, cnt, cnt + 1)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public boolean release() {
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt <= 0) {
+                throw new IllegalReferenceCountException("buffer has been released");
+            }
+            if (refCntUpdater.compareAndSet(this, cnt, cnt - 1)) {
+                if (cnt == 1) {
+                    if (slot != null) {
+                        slot.arena.release(slot);
+                    } else {
+                        allocator.release(buffer);
+                    }
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RefCountedByteBuffer(" + buffer + ", refCnt=" + refCnt + ")";
+    }
+}
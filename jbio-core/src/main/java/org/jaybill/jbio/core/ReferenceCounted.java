@@ -0,0 +1,24 @@
+package org.jaybill.jbio.core;
+
+/**
+ * An object whose resource is given back explicitly once the reference count drops to 0. <br/>
+ * A new object starts with 1. Whoever consumes it last must release it, e.g. the tail of the pipeline releases the
+ * inbound messages no handler consumes, and the channel releases the outbound messages once they are flushed.
+ */
+public interface ReferenceCounted {
+
+    int refCnt();
+
+    /**
+     * increase the reference count by 1
+     * @throws org.jaybill.jbio.core.ex.IllegalReferenceCountException if it has been deallocated
+     */
+    ReferenceCounted retain();
+
+    /**
+     * decrease the reference count by 1, and deallocate the object if it reaches 0
+     * @return true if the object has been deallocated
+     * @throws org.jaybill.jbio.core.ex.IllegalReferenceCountException if it has been deallocated
+     */
+    boolean release();
+}
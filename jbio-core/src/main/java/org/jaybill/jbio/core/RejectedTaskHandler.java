@@ -0,0 +1,16 @@
+package org.jaybill.jbio.core;
+
+/**
+ * It is called when a task is submitted from another thread, but the task queue of the eventloop is full.
+ * @see RejectedTaskHandlers
+ */
+public interface RejectedTaskHandler {
+
+    /**
+     * handle the task which can not be added to the task queue
+     * @param task task
+     * @param eventLoop the eventloop whose task queue is full
+     * @throws RejectTaskException if the task is dropped
+     */
+    void rejected(Runnable task, NioEventLoop eventLoop);
+}
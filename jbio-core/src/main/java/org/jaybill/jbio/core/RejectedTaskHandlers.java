@@ -0,0 +1,40 @@
+package org.jaybill.jbio.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class RejectedTaskHandlers {
+
+    /**
+     * Block the caller until the task queue has space, or the eventloop is closed. <br/>
+     * Please note that two eventloops blocking on each other's full task queue will deadlock.
+     */
+    public static final RejectedTaskHandler BLOCK = (task, eventLoop) -> {
+        while (!eventLoop.offerTask(task)) {
+            if (eventLoop.isClosing()) {
+                throw new RejectTaskException("eventloop is closing");
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    };
+
+    /**
+     * Run the task in the caller thread. <br/>
+     * Only use it when the tasks don't rely on running in the eventloop,
+     * for example, pipeline events will no longer be executed in the eventloop thread.
+     */
+    public static final RejectedTaskHandler CALLER_RUNS = (task, eventLoop) -> task.run();
+
+    /**
+     * Drop the task.
+     */
+    public static final RejectedTaskHandler REJECT = (task, eventLoop) -> {
+        throw new RejectTaskException("queue overflow");
+    };
+
+    /**
+     * Add the task to an unbounded secondary queue, which is drained after the task queue. <br/>
+     * Please note that the spilled tasks may run after the tasks submitted later.
+     */
+    public static final RejectedTaskHandler SPILL = (task, eventLoop) -> eventLoop.spillTask(task);
+}
@@ -1,4 +1,53 @@
 package org.jaybill.jbio.core;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for the messages which may be {@link ReferenceCounted}, other messages are ignored.
+ */
+@Slf4j
 public class ReleaseUtil {
+
+    public static <T> T retain(T msg) {
+        if (msg instanceof ReferenceCounted rc) {
+            rc.retain();
+        }
+        return msg;
+    }
+
+    /**
+     * @return true if the message has been deallocated
+     */
+    public static boolean release(Object msg) {
+        if (msg instanceof ReferenceCounted rc) {
+            return rc.release();
+        }
+        return false;
+    }
+
+    /**
+     * release the message, log instead of throwing if it fails
+     */
+    public static void safeRelease(Object msg) {
+        try {
+            release(msg);
+        } catch (Throwable e) {
+            log.warn("release message {} error:", msg, e);
+        }
+    }
+
+    /**
+     * @return the ByteBuffer of the message, or null if the message is not a buffer
+     */
+    public static ByteBuffer buffer(Object msg) {
+        if (msg instanceof ByteBuffer buf) {
+            return buf;
+        }
+        if (msg instanceof RefCountedByteBuffer rc) {
+            return rc.buffer();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,37 @@
+package org.jaybill.jbio.core;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A task scheduled by {@link NioEventLoop}, it is also the future returned to the caller. <br/>
+ * Cancelling the future removes the task from the timing wheel immediately if the caller is in the eventloop,
+ * otherwise the removal is handed over to the eventloop.
+ */
+final class ScheduledTask extends CompletableFuture<Void> {
+    final NioEventLoop eventLoop;
+    final Runnable r;
+    final long period; // 0 means the task only runs once
+    long deadline;
+
+    // only accessed by the eventloop thread
+    ScheduledTask prev;
+    ScheduledTask next;
+    int bucket = -1;
+    long remainingRounds;
+
+    ScheduledTask(NioEventLoop eventLoop, Runnable r, long deadline, long period) {
+        this.eventLoop = eventLoop;
+        this.r = r;
+        this.deadline = deadline;
+        this.period = period;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            eventLoop.cancelScheduledTask(this);
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,115 @@
+package org.jaybill.jbio.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An array-backed set of the selected keys, which replaces the HashSet inside the JDK selector. <br/>
+ * The selector only calls {@link #add(SelectionKey)} when selecting, and the eventloop walks the array by index
+ * then {@link #reset()} it, so there is no hashing, no iterator and no garbage on the hot path. <br/>
+ * {@link #contains(Object)} always return false, it is ok because the set is reset after each select.
+ */
+@Slf4j
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+
+    // the failure of install() is logged once at WARN, it is the same for every selector
+    private static final AtomicBoolean warned = new AtomicBoolean();
+
+    SelectionKey[] keys = new SelectionKey[1024];
+    int size;
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<>() {
+            private int idx;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys[idx++];
+            }
+        };
+    }
+
+    void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Replace the selected keys of {@code sun.nio.ch.SelectorImpl} with a new {@link SelectedSelectionKeySet}. <br/>
+     * java.base doesn't open sun.nio.ch by default, so it only works with
+     * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}.
+     * @return the installed set, or null if the JDK doesn't allow it, then the selector should be used as usual.
+     */
+    static SelectedSelectionKeySet install(Selector selector) {
+        try {
+            var clazz = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!clazz.isInstance(selector)) {
+                return null;
+            }
+            var selectedKeysField = clazz.getDeclaredField("selectedKeys");
+            var publicSelectedKeysField = clazz.getDeclaredField("publicSelectedKeys");
+            if (!selectedKeysField.trySetAccessible() || !publicSelectedKeysField.trySetAccessible()) {
+                warnOnce("sun.nio.ch is not opened, start the JVM with --add-opens java.base/sun.nio.ch=ALL-UNNAMED");
+                return null;
+            }
+            var set = new SelectedSelectionKeySet();
+            selectedKeysField.set(selector, set);
+            publicSelectedKeysField.set(selector, set);
+            return set;
+        } catch (Throwable e) {
+            warnOnce(e.toString());
+            return null;
+        }
+    }
+
+    private static void warnOnce(String reason) {
+        if (!warned.get() && warned.compareAndSet(false, true)) {
+            log.warn("can not optimize the selected keys, the eventloops use the selector as usual: {}", reason);
+        } else {
+            log.debug("can not optimize the selected keys: {}", reason);
+        }
+    }
+}
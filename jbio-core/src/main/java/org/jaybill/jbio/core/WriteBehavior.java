@@ -13,6 +13,13 @@ public class WriteBehavior {
      */
     private int spinCount;
 
+    /**
+     * If true, stop spinning once a retry writes nothing, and wait for OP_WRITE. <br/>
+     * Each channel also learns how many retries are worth it, between 1 and {@link #spinCount}:
+     * halved when the spinning can not drain the messages, doubled when it can.
+     */
+    private boolean adaptiveSpin;
+
     /**
      * The maximum number of ByteBuffer writes per write operation
      */
@@ -31,4 +38,11 @@ public class WriteBehavior {
      */
     private int lowWatermark;
 
+    /**
+     * If true, writeAndFlush writes the message to the socket directly when the SendBuffer is empty,
+     * and only the bytes left over are put into the SendBuffer, waiting for OP_WRITE. <br/>
+     * It saves the queueing and the gathering write of the common small response case.
+     */
+    private boolean writeThrough;
+
 }
@@ -0,0 +1,26 @@
+package org.jaybill.jbio.core;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The result of a write, see {@link ChannelHandlerInvoker#fireChannelWrite(Object, WritePromise)}. <br/>
+ * It is completed once all the messages written with it have been drained from the SendBuffer into the kernel,
+ * or completed exceptionally if they are dropped, e.g. the channel is closed. <br/>
+ * A completed promise can not be reused, the write with it is dropped with a {@link JBIOException}. <br/>
+ * The writes without a promise don't allocate anything.
+ */
+public class WritePromise extends CompletableFuture<Void> {
+
+    // the messages written with the promise which are not drained yet, only accessed in the eventloop
+    private int pending;
+
+    void retain() {
+        pending++;
+    }
+
+    void written() {
+        if (--pending <= 0) {
+            this.complete(null);
+        }
+    }
+}
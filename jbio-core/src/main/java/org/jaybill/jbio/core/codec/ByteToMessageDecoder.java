@@ -0,0 +1,220 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.ByteBufferAllocator;
+import org.jaybill.jbio.core.ChannelHandlerContext;
+import org.jaybill.jbio.core.DefaultChannelDuplexHandler;
+import org.jaybill.jbio.core.JBIOException;
+import org.jaybill.jbio.core.RefCountedByteBuffer;
+import org.jaybill.jbio.core.ex.CorruptedFrameException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Cumulate the read buffers until a whole frame is received, and fire the frames returned by {@link #decode}. <br/>
+ * The read buffer is decoded in place, only the bytes of an incomplete frame are copied into the cumulation,
+ * and a frame is a slice of the read buffer or of the cumulation, not a copy. So a frame is only valid until
+ * the channelRead returns, the next handlers must copy it if they use it later. <br/>
+ * It keeps the state of one channel, so it can not be shared by channels.
+ */
+public abstract class ByteToMessageDecoder extends DefaultChannelDuplexHandler {
+
+    public enum Cumulation {
+        /**
+         * Copy the bytes into one buffer, which is compacted, or grown to the expected frame length
+         * (see {@link #expect(int)}), or doubled when it is full. It is the fastest.
+         */
+        MERGE,
+        /**
+         * Copy the bytes of each read into its own buffer of the exact size, and merge them into one buffer
+         * only when the expected frame length is received. <br/>
+         * A connection only holds the bytes received, not the buffer of the whole large frame announced by the header,
+         * at the cost of one more copy. It is for the decoders knowing the frame length in advance,
+         * e.g. {@link LengthFieldBasedFrameDecoder}.
+         */
+        COMPOSITE
+    }
+
+    private Cumulation cumulationMode = Cumulation.MERGE;
+    private ByteBufferAllocator allocator;
+    // MERGE: the bytes not decoded yet, in read mode
+    private RefCountedByteBuffer cumulation;
+    // COMPOSITE: the bytes not decoded yet, each in read mode
+    private final ArrayList<RefCountedByteBuffer> components = new ArrayList<>(4);
+    private int componentBytes;
+    // don't decode until so many bytes are cumulated
+    private int expectedBytes;
+
+    public void setCumulation(Cumulation cumulation) {
+        this.cumulationMode = cumulation;
+    }
+
+    /**
+     * The allocator of the cumulation buffers, the allocator of the channel by default.
+     */
+    public void setAllocator(ByteBufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Decode one frame from the buffer, and move the position of the buffer to the end of the frame.
+     * @return the frame, or null if it needs more bytes
+     * @throws CorruptedFrameException after skipping the bytes can not be decoded, it is fired to the next handlers.
+     * If nothing is skipped, the decoding stops until more bytes are received
+     */
+    protected abstract Object decode(ChannelHandlerContext ctx, ByteBuffer in);
+
+    /**
+     * Tell the length of the frame being received, counted from the position of the buffer of {@link #decode}. <br/>
+     * The decoder is not called again until so many bytes are received.
+     */
+    protected void expect(int bytes) {
+        this.expectedBytes = bytes;
+    }
+
+    /**
+     * The bytes received but not decoded yet.
+     */
+    public int cumulatedBytes() {
+        return cumulation != null ? cumulation.buffer().remaining() : componentBytes;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object o) {
+        if (!(o instanceof ByteBuffer in)) {
+            ctx.fireChannelRead(o);
+            return;
+        }
+        if (allocator == null) {
+            allocator = ctx.channel().allocator();
+        }
+        if (this.cumulatedBytes() == 0) {
+            // nothing cumulated, decode the read buffer in place
+            try {
+                this.callDecode(ctx, in);
+            } finally {
+                // the read buffer is reused, keep the rest even if decode() throws
+                if (in.hasRemaining()) {
+                    this.cumulate(in);
+                }
+            }
+            return;
+        }
+        this.cumulate(in);
+        if (this.cumulatedBytes() < expectedBytes) {
+            return;
+        }
+        if (cumulationMode == Cumulation.COMPOSITE) {
+            cumulation = this.mergeComponents();
+        }
+        try {
+            this.callDecode(ctx, cumulation.buffer());
+        } finally {
+            if (!cumulation.buffer().hasRemaining()) {
+                cumulation.release();
+                cumulation = null;
+            } else if (cumulationMode == Cumulation.COMPOSITE) {
+                // the rest becomes the first component
+                components.add(cumulation);
+                componentBytes = cumulation.buffer().remaining();
+                cumulation = null;
+            }
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx) {
+        this.releaseCumulation();
+        ctx.fireChannelClosed();
+    }
+
+    private void callDecode(ChannelHandlerContext ctx, ByteBuffer in) {
+        expectedBytes = 0;
+        while (in.hasRemaining()) {
+            int position = in.position();
+            Object frame;
+            try {
+                frame = this.decode(ctx, in);
+            } catch (CorruptedFrameException e) {
+                // the frame expected is given up
+                expectedBytes = 0;
+                ctx.fireChannelException(e);
+                if (in.position() == position) {
+                    // nothing skipped, stop decoding the bytes again and again
+                    return;
+                }
+                continue;
+            } catch (Throwable t) {
+                expectedBytes = 0;
+                throw t;
+            }
+            if (frame == null) {
+                return;
+            }
+            if (in.position() == position) {
+                throw new JBIOException(this.getClass().getSimpleName() + ".decode() returns a frame without reading bytes");
+            }
+            ctx.fireChannelRead(frame);
+        }
+    }
+
+    private void cumulate(ByteBuffer in) {
+        int n = in.remaining();
+        if (cumulationMode == Cumulation.COMPOSITE) {
+            var component = allocator.allocateRefCounted(n);
+            component.buffer().put(in).flip();
+            components.add(component);
+            componentBytes += n;
+            return;
+        }
+        if (cumulation == null) {
+            cumulation = allocator.allocateRefCounted(Math.max(n, expectedBytes));
+            cumulation.buffer().put(in).flip();
+            return;
+        }
+        var buf = cumulation.buffer();
+        if (buf.capacity() - buf.limit() >= n) {
+            int position = buf.position();
+            buf.position(buf.limit()).limit(buf.capacity());
+            buf.put(in);
+            buf.limit(buf.position()).position(position);
+        } else if (buf.capacity() - buf.remaining() >= n) {
+            buf.compact().put(in).flip();
+        } else {
+            int size = Math.max(buf.remaining() + n, Math.max(expectedBytes, buf.capacity() * 2));
+            var grown = allocator.allocateRefCounted(size);
+            grown.buffer().put(buf).put(in).flip();
+            cumulation.release();
+            cumulation = grown;
+        }
+    }
+
+    private RefCountedByteBuffer mergeComponents() {
+        RefCountedByteBuffer merged;
+        if (components.size() == 1) {
+            merged = components.get(0);
+        } else {
+            merged = allocator.allocateRefCounted(componentBytes);
+            for (var component : components) {
+                merged.buffer().put(component.buffer());
+                component.release();
+            }
+            merged.buffer().flip();
+        }
+        components.clear();
+        componentBytes = 0;
+        return merged;
+    }
+
+    private void releaseCumulation() {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+        for (var component : components) {
+            component.release();
+        }
+        components.clear();
+        componentBytes = 0;
+    }
+}
@@ -0,0 +1,119 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.ChannelHandlerContext;
+import org.jaybill.jbio.core.ex.TooLongFrameException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Split the bytes by one or more delimiters, the frame ends at the first delimiter found. <br/>
+ * For "\n" or "\r\n", {@link LineBasedFrameDecoder} is faster.
+ */
+public class DelimiterBasedFrameDecoder extends ByteToMessageDecoder {
+
+    private final int maxFrameLength;
+    private final boolean stripDelimiter;
+    private final byte[][] delimiters;
+    private final int maxDelimiterLength;
+    // whether a byte is the first byte of a delimiter
+    private final boolean[] firstBytes = new boolean[256];
+    // the bytes can not be the start of a delimiter, counted from the position
+    private int scanned;
+    // discarding a too long frame until the next delimiter
+    private boolean discarding;
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, byte[]... delimiters) {
+        this(maxFrameLength, true, delimiters);
+    }
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, boolean stripDelimiter, byte[]... delimiters) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive");
+        }
+        if (delimiters == null || delimiters.length == 0) {
+            throw new IllegalArgumentException("delimiters is empty");
+        }
+        int max = 0;
+        for (var delimiter : delimiters) {
+            if (delimiter == null || delimiter.length == 0) {
+                throw new IllegalArgumentException("delimiter is empty");
+            }
+            max = Math.max(max, delimiter.length);
+            firstBytes[delimiter[0] & 0xFF] = true;
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.stripDelimiter = stripDelimiter;
+        this.delimiters = delimiters.clone();
+        this.maxDelimiterLength = max;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuffer in) {
+        int start = in.position();
+        int end = start + scanned;
+        byte[] found = null;
+        while (found == null && (end = this.indexOfFirstByte(in, end)) >= 0) {
+            for (var delimiter : delimiters) {
+                if (matches(in, end, delimiter)) {
+                    found = delimiter;
+                    break;
+                }
+            }
+            if (found == null) {
+                end++;
+            }
+        }
+        if (found == null) {
+            // a delimiter may start in the last bytes
+            scanned = Math.max(0, in.remaining() - maxDelimiterLength + 1);
+            if (discarding) {
+                in.position(start + scanned);
+                scanned = 0;
+            } else if (in.remaining() > maxFrameLength + maxDelimiterLength) {
+                in.position(start + scanned);
+                scanned = 0;
+                discarding = true;
+                throw new TooLongFrameException("frame length exceeds " + maxFrameLength);
+            }
+            return null;
+        }
+        scanned = 0;
+        int next = end + found.length;
+        if (discarding) {
+            discarding = false;
+            in.position(next);
+            return this.decode(ctx, in);
+        }
+        int length = end - start;
+        if (length > maxFrameLength) {
+            in.position(next);
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + ": " + length);
+        }
+        var frame = in.slice(start, stripDelimiter ? length : next - start);
+        in.position(next);
+        return frame;
+    }
+
+    // the index of the first byte of any delimiter, or -1 if not found
+    private int indexOfFirstByte(ByteBuffer in, int from) {
+        int limit = in.limit();
+        for (int i = from; i < limit; i++) {
+            if (firstBytes[in.get(i) & 0xFF]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer in, int index, byte[] delimiter) {
+        if (in.limit() - index < delimiter.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (in.get(index + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
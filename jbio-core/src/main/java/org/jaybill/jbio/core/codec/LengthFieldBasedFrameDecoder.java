@@ -0,0 +1,95 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.ChannelHandlerContext;
+import org.jaybill.jbio.core.ex.CorruptedFrameException;
+import org.jaybill.jbio.core.ex.TooLongFrameException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Split the bytes by the length field in the header of each frame. <br/>
+ * The frame length is {@code lengthFieldOffset + lengthFieldLength + length + lengthAdjustment},
+ * and the first {@code initialBytesToStrip} bytes of the frame are stripped. <br/>
+ * e.g. a frame of a 4 bytes length and the content: new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4)
+ */
+public class LengthFieldBasedFrameDecoder extends ByteToMessageDecoder {
+
+    private final int maxFrameLength;
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final int lengthAdjustment;
+    private final int initialBytesToStrip;
+    private final int lengthFieldEnd;
+    // the bytes of the too long frame not discarded yet
+    private long bytesToDiscard;
+
+    public LengthFieldBasedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, 0, 0);
+    }
+
+    public LengthFieldBasedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                                        int lengthAdjustment, int initialBytesToStrip) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive");
+        }
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3
+                && lengthFieldLength != 4 && lengthFieldLength != 8) {
+            throw new IllegalArgumentException("lengthFieldLength must be one of 1, 2, 3, 4, 8");
+        }
+        if (lengthFieldOffset < 0 || initialBytesToStrip < 0) {
+            throw new IllegalArgumentException("lengthFieldOffset and initialBytesToStrip must not be negative");
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.initialBytesToStrip = initialBytesToStrip;
+        this.lengthFieldEnd = lengthFieldOffset + lengthFieldLength;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuffer in) {
+        if (bytesToDiscard > 0) {
+            int n = (int) Math.min(bytesToDiscard, in.remaining());
+            in.position(in.position() + n);
+            bytesToDiscard -= n;
+            if (bytesToDiscard > 0) {
+                return null;
+            }
+        }
+        if (in.remaining() < lengthFieldEnd) {
+            return null;
+        }
+        int start = in.position();
+        long frameLength = this.lengthField(in, start + lengthFieldOffset) + lengthFieldEnd + lengthAdjustment;
+        if (frameLength < lengthFieldEnd || frameLength < initialBytesToStrip) {
+            in.position(start + lengthFieldEnd);
+            throw new CorruptedFrameException("illegal frame length: " + frameLength);
+        }
+        if (frameLength > maxFrameLength) {
+            bytesToDiscard = frameLength;
+            int n = (int) Math.min(bytesToDiscard, in.remaining());
+            in.position(start + n);
+            bytesToDiscard -= n;
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + ": " + frameLength);
+        }
+        int length = (int) frameLength;
+        if (in.remaining() < length) {
+            this.expect(length);
+            return null;
+        }
+        var frame = in.slice(start + initialBytesToStrip, length - initialBytesToStrip);
+        in.position(start + length);
+        return frame;
+    }
+
+    private long lengthField(ByteBuffer in, int index) {
+        return switch (lengthFieldLength) {
+            case 1 -> in.get(index) & 0xFF;
+            case 2 -> in.getShort(index) & 0xFFFF;
+            case 3 -> (in.getShort(index) & 0xFFFF) << 8 | in.get(index + 2) & 0xFF;
+            case 4 -> in.getInt(index) & 0xFFFFFFFFL;
+            default -> in.getLong(index);
+        };
+    }
+}
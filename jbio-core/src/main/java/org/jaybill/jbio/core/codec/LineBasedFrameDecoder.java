@@ -0,0 +1,80 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.ChannelHandlerContext;
+import org.jaybill.jbio.core.ex.TooLongFrameException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Split the bytes by "\n" or "\r\n". <br/>
+ * The bytes scanned are remembered, so a long line received by many reads is scanned only once.
+ */
+public class LineBasedFrameDecoder extends ByteToMessageDecoder {
+
+    private final int maxLength;
+    private final boolean stripDelimiter;
+    // the bytes scanned without "\n", counted from the position
+    private int scanned;
+    // discarding a too long line until the next "\n"
+    private boolean discarding;
+
+    public LineBasedFrameDecoder(int maxLength) {
+        this(maxLength, true);
+    }
+
+    public LineBasedFrameDecoder(int maxLength, boolean stripDelimiter) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be positive");
+        }
+        this.maxLength = maxLength;
+        this.stripDelimiter = stripDelimiter;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuffer in) {
+        int start = in.position();
+        int eol = this.findEndOfLine(in);
+        if (discarding) {
+            if (eol < 0) {
+                in.position(in.limit());
+                scanned = 0;
+                return null;
+            }
+            in.position(eol + 1);
+            discarding = false;
+            return this.decode(ctx, in);
+        }
+        if (eol < 0) {
+            if (in.remaining() > maxLength + 1) {
+                // too long even if the last byte is "\r"
+                in.position(in.limit());
+                scanned = 0;
+                discarding = true;
+                throw new TooLongFrameException("line length exceeds " + maxLength);
+            }
+            return null;
+        }
+        int length = (eol > start && in.get(eol - 1) == '\r' ? eol - 1 : eol) - start;
+        if (length > maxLength) {
+            in.position(eol + 1);
+            throw new TooLongFrameException("line length exceeds " + maxLength + ": " + length);
+        }
+        var frame = in.slice(start, stripDelimiter ? length : eol + 1 - start);
+        in.position(eol + 1);
+        return frame;
+    }
+
+    // the index of "\n", or -1 if not found
+    private int findEndOfLine(ByteBuffer in) {
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start + scanned; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                scanned = 0;
+                return i;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+}
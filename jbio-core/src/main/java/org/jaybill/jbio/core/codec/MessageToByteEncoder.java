@@ -0,0 +1,231 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encode the messages of type T directly into the buffers of the allocator, other messages are passed through. <br/>
+ * The buffer is sized by the encoded sizes of the previous messages of the same class encoded by the same encoder class,
+ * and grown if it overflows.
+ * The small messages are encoded into one batch buffer, which is written when it is full, or flushed,
+ * or a message with a {@link WritePromise} is encoded. <br/>
+ * It keeps the batch of one channel, so it can not be shared by channels.
+ */
+public abstract class MessageToByteEncoder<T> extends DefaultChannelDuplexHandler {
+
+    public static final int DEFAULT_BATCH_SIZE = 2048;
+
+    // the encoded sizes learned by the encoder classes and the message classes, shared by the channels
+    private static final ClassValue<ClassValue<SizeEstimator>> encoderEstimators = new ClassValue<>() {
+        @Override
+        protected ClassValue<SizeEstimator> computeValue(Class<?> encoderType) {
+            return new ClassValue<>() {
+                @Override
+                protected SizeEstimator computeValue(Class<?> type) {
+                    return new SizeEstimator();
+                }
+            };
+        }
+    };
+
+    private final ClassValue<SizeEstimator> estimators = encoderEstimators.get(this.getClass());
+    private final Class<? extends T> type;
+    private final int batchSize;
+    private ByteBufferAllocator allocator;
+    // the encoded messages not written yet, in write mode
+    private RefCountedByteBuffer batch;
+
+    protected MessageToByteEncoder(Class<? extends T> type) {
+        this(type, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the size of the batch buffer, the messages not smaller than it are encoded into their own buffers
+     */
+    protected MessageToByteEncoder(Class<? extends T> type, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.type = type;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The allocator of the buffers, the allocator of the channel by default.
+     */
+    public void setAllocator(ByteBufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Put the bytes of the message into the buffer. <br/>
+     * If the buffer is not large enough, it is called again with a larger buffer, so it must not change the message.
+     * @throws BufferOverflowException if the buffer is not large enough
+     */
+    protected abstract void encode(ChannelHandlerContext ctx, T msg, ByteBuffer out);
+
+    /**
+     * The exact encoded size of the message if it is cheap to know, or -1 to estimate it by the previous messages.
+     */
+    protected int encodedSize(T msg) {
+        return -1;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object o) {
+        this.write(ctx, o, false);
+    }
+
+    @Override
+    public void writeAndFlush(ChannelHandlerContext ctx, Object o) {
+        this.write(ctx, o, true);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        this.writeBatch(ctx, false);
+        ctx.fireChannelFlush();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx) {
+        this.releaseBatch();
+        ctx.fireChannelClose();
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx) {
+        this.releaseBatch();
+        ctx.fireChannelClosed();
+    }
+
+    private void write(ChannelHandlerContext ctx, Object o, boolean flush) {
+        if (!type.isInstance(o)) {
+            // keep the order of the messages
+            this.writeBatch(ctx, false);
+            if (flush) {
+                ctx.fireChannelWriteAndFlush(o);
+            } else {
+                ctx.fireChannelWrite(o);
+            }
+            return;
+        }
+        if (allocator == null) {
+            allocator = ctx.channel().allocator();
+        }
+        T msg = type.cast(o);
+        var estimator = estimators.get(o.getClass());
+        int size = this.encodedSize(msg);
+        if (size < 0) {
+            size = estimator.estimate();
+        }
+        try {
+            if (size < batchSize) {
+                if (batch != null && batch.buffer().remaining() < size) {
+                    this.writeBatch(ctx, false);
+                }
+                if (batch == null) {
+                    batch = allocator.allocateRefCounted(batchSize);
+                }
+                var out = batch.buffer();
+                int start = out.position();
+                try {
+                    this.encode(ctx, msg, out);
+                    estimator.record(out.position() - start);
+                } catch (BufferOverflowException e) {
+                    // encode it into its own buffer
+                    out.position(start);
+                    this.writeBatch(ctx, false);
+                    this.encodeAlone(ctx, msg, estimator, Math.max(size, out.limit() - start) * 2, flush);
+                    return;
+                } catch (Throwable e) {
+                    // drop the partial bytes, keep the messages encoded before
+                    out.position(start);
+                    throw e;
+                }
+                if (flush || ctx.writePromise() != null) {
+                    // the promise completes with the batch
+                    this.writeBatch(ctx, flush);
+                }
+            } else {
+                this.writeBatch(ctx, false);
+                this.encodeAlone(ctx, msg, estimator, size, flush);
+            }
+        } finally {
+            ReleaseUtil.safeRelease(o);
+        }
+    }
+
+    private void encodeAlone(ChannelHandlerContext ctx, T msg, SizeEstimator estimator, int size, boolean flush) {
+        size = Math.max(size, SizeEstimator.INITIAL_SIZE);
+        for (;;) {
+            var buf = allocator.allocateRefCounted(size);
+            var out = buf.buffer();
+            try {
+                this.encode(ctx, msg, out);
+            } catch (BufferOverflowException e) {
+                buf.release();
+                size *= 2;
+                continue;
+            } catch (Throwable e) {
+                buf.release();
+                throw e;
+            }
+            estimator.record(out.position());
+            out.flip();
+            if (flush) {
+                ctx.fireChannelWriteAndFlush(buf);
+            } else {
+                ctx.fireChannelWrite(buf);
+            }
+            return;
+        }
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx, boolean flush) {
+        if (batch == null) {
+            return;
+        }
+        var buf = batch;
+        batch = null;
+        if (buf.buffer().position() == 0) {
+            buf.release();
+            if (flush) {
+                ctx.fireChannelFlush();
+            }
+            return;
+        }
+        buf.buffer().flip();
+        if (flush) {
+            ctx.fireChannelWriteAndFlush(buf);
+        } else {
+            ctx.fireChannelWrite(buf);
+        }
+    }
+
+    private void releaseBatch() {
+        if (batch != null) {
+            batch.release();
+            batch = null;
+        }
+    }
+
+    /**
+     * The moving average of the encoded sizes, the racing updates from the eventloops only lose some samples.
+     */
+    static final class SizeEstimator {
+        private static final int INITIAL_SIZE = 64;
+        private int average = INITIAL_SIZE;
+
+        int estimate() {
+            // leave some room for the larger messages
+            return average + (average >> 2);
+        }
+
+        void record(int size) {
+            average += (size - average) >> 2;
+        }
+    }
+}
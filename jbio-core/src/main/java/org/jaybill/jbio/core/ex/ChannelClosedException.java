@@ -0,0 +1,4 @@
+package org.jaybill.jbio.core.ex;
+
+public class ChannelClosedException extends RuntimeException {
+}
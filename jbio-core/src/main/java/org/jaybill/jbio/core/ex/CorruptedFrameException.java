@@ -0,0 +1,11 @@
+package org.jaybill.jbio.core.ex;
+
+/**
+ * The received bytes can not be decoded into a frame, the decoder has skipped them.
+ */
+public class CorruptedFrameException extends RuntimeException {
+
+    public CorruptedFrameException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package org.jaybill.jbio.core.ex;
+
+public class IllegalReferenceCountException extends RuntimeException {
+
+    public IllegalReferenceCountException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package org.jaybill.jbio.core.ex;
+
+/**
+ * The frame is longer than the max frame length, the decoder discards it.
+ */
+public class TooLongFrameException extends CorruptedFrameException {
+
+    public TooLongFrameException(String message) {
+        super(message);
+    }
+}
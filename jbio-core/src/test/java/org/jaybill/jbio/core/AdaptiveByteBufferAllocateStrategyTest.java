@@ -0,0 +1,57 @@
+package org.jaybill.jbio.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveByteBufferAllocateStrategyTest {
+
+    @Test
+    public void testGrowAndShrink() {
+        var strategy = new AdaptiveByteBufferAllocateStrategy(new UnpooledByteBufferAllocator(), 64, 1000, 16 * 1024);
+        Assert.assertEquals(1024, strategy.nextSize());
+
+        // grow fast when the buffer is filled up
+        strategy.record(1024);
+        Assert.assertEquals(4096, strategy.nextSize());
+        strategy.record(4096);
+        Assert.assertEquals(16 * 1024, strategy.nextSize());
+        strategy.record(16 * 1024);
+        Assert.assertEquals(16 * 1024, strategy.nextSize());
+
+        // shrink slowly after two small reads in a row
+        strategy.record(100);
+        Assert.assertEquals(16 * 1024, strategy.nextSize());
+        strategy.record(100);
+        Assert.assertEquals(8 * 1024, strategy.nextSize());
+        strategy.record(100);
+        strategy.record(6000);
+        strategy.record(100);
+        Assert.assertEquals(8 * 1024, strategy.nextSize());
+
+        for (int i = 0; i < 100; i++) {
+            strategy.record(1);
+        }
+        Assert.assertEquals(64, strategy.nextSize());
+    }
+
+    @Test
+    public void testPooled() throws Exception {
+        // reuse the buffer from the cache of the eventloop
+        var loop = new NioEventLoop(SelectorProvider.provider(), "adaptive-test-");
+        loop.submitTask(() -> {
+            var allocator = new PooledByteBufferAllocator();
+            var strategy = new AdaptiveByteBufferAllocateStrategy(allocator);
+            var buf = strategy.allocate();
+            Assert.assertEquals(AdaptiveByteBufferAllocateStrategy.DEFAULT_INITIAL_SIZE, buf.remaining());
+            long used = allocator.metrics().usedBytes();
+            strategy.release(buf);
+            Assert.assertEquals(used - buf.capacity(), allocator.metrics().usedBytes());
+            Assert.assertSame(buf, strategy.allocate());
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+}
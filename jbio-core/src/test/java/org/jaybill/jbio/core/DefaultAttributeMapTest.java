@@ -0,0 +1,76 @@
+package org.jaybill.jbio.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+public class DefaultAttributeMapTest {
+
+    private static final AttributeKey<String> NAME = AttributeKey.valueOf("test.name");
+    private static final AttributeKey<Integer> COUNT = AttributeKey.valueOf("test.count");
+
+    @Test
+    public void testAttr() {
+        Assert.assertSame(NAME, AttributeKey.valueOf("test.name"));
+        Assert.assertNotSame(NAME, COUNT);
+
+        var map = new DefaultAttributeMap();
+        Assert.assertNull(map.attr(NAME));
+        map.attr(COUNT, 1);
+        map.attr(NAME, "a");
+        Assert.assertEquals("a", map.attr(NAME));
+        Assert.assertEquals(Integer.valueOf(1), map.attr(COUNT));
+        map.attr(NAME, null);
+        Assert.assertNull(map.attr(NAME));
+        Assert.assertEquals(Integer.valueOf(1), map.attr(COUNT));
+    }
+
+    @Test
+    public void testStringAttr() {
+        var ctx = new DefaultChannelHandlerContext(null, new DefaultChannelDuplexHandler(), null, null);
+        ctx.attr("test.name", "b");
+        Assert.assertEquals("b", ctx.attr("test.name"));
+        // the names are apart from the keys
+        Assert.assertNull(ctx.attr(NAME));
+        ctx.attr(NAME, "c");
+        Assert.assertEquals("b", ctx.attr("test.name"));
+        ctx.attr("test.name", null);
+        Assert.assertNull(ctx.attr("test.name"));
+        Assert.assertEquals("c", ctx.attr(NAME));
+    }
+
+    @Test
+    public void testConcurrentWrite() throws Exception {
+        var map = new DefaultAttributeMap();
+        var keys = new ArrayList<AttributeKey<Integer>>();
+        for (int i = 0; i < 64; i++) {
+            keys.add(AttributeKey.valueOf("test.concurrent." + i));
+        }
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = offset; i < keys.size(); i += 4) {
+                    map.attr(keys.get(i), i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i), map.attr(keys.get(i)));
+        }
+    }
+}
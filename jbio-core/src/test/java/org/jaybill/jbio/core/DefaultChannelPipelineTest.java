@@ -0,0 +1,220 @@
+package org.jaybill.jbio.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jaybill.jbio.core.ChannelHandlerMask.*;
+
+public class DefaultChannelPipelineTest {
+
+    private NioEventLoop eventLoop;
+    private DefaultChannelPipeline pipeline;
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        eventLoop = new NioEventLoop(SelectorProvider.provider(), "pipeline-test-");
+        pipeline = new DefaultChannelPipeline(
+                new DefaultChannelDuplexHandler(), new DefaultChannelDuplexHandler(), null, eventLoop);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventLoop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    private class ReadHandler extends DefaultChannelDuplexHandler {
+        private final String name;
+
+        ReadHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object o) {
+            events.add(name + ":" + o);
+            ctx.fireChannelRead(o);
+        }
+    }
+
+    private class WriteHandler extends DefaultChannelDuplexHandler {
+        private final String name;
+
+        WriteHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object o) {
+            events.add(name + ":" + o);
+            ctx.fireChannelWrite(o);
+        }
+    }
+
+    // run in the eventloop, and wait for it
+    private void inEventLoop(Runnable r) throws Exception {
+        eventLoop.submitTask(() -> {
+            r.run();
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testMask() {
+        Assert.assertEquals(0, ChannelHandlerMask.mask(DefaultChannelDuplexHandler.class));
+        Assert.assertEquals(MASK_CHANNEL_READ, ChannelHandlerMask.mask(ReadHandler.class));
+        Assert.assertEquals(MASK_WRITE, ChannelHandlerMask.mask(WriteHandler.class));
+
+        ChannelInboundHandler inbound = new ChannelInboundHandler() {
+            public void channelInitialized(ChannelHandlerContext ctx) {}
+            public void channelBound(ChannelHandlerContext ctx) {}
+            public void channelRegistered(ChannelHandlerContext ctx) {}
+            public void channelConnected(ChannelHandlerContext ctx) {}
+            public void channelDeregistered(ChannelHandlerContext ctx) {}
+            public void channelSendBufferFull(ChannelHandlerContext ctx) {}
+            public void channelUnWritable(ChannelHandlerContext ctx) {}
+            public void channelWritable(ChannelHandlerContext ctx) {}
+            public void channelClosed(ChannelHandlerContext ctx) {}
+            public void channelRead(ChannelHandlerContext ctx, Object o) {}
+            public void channelException(ChannelHandlerContext ctx, Throwable t) {}
+        };
+        int mask = ChannelHandlerMask.mask(inbound.getClass());
+        Assert.assertEquals(MASK_CHANNEL_READ, mask & MASK_CHANNEL_READ);
+        Assert.assertEquals(0, mask & MASK_WRITE);
+        // the default method only forwards the event
+        Assert.assertEquals(0, mask & MASK_CHANNEL_READ_COMPLETE);
+    }
+
+    @Test
+    public void testSkipHandlers() throws Exception {
+        pipeline.addLast(new ReadHandler("r1"))
+                .addLast(new WriteHandler("w1"))
+                .addLast(new DefaultChannelDuplexHandler())
+                .addLast(new ReadHandler("r2"))
+                .addLast(new WriteHandler("w2"));
+        inEventLoop(() -> {
+            pipeline.fireChannelRead("a");
+            pipeline.fireChannelWrite("b");
+        });
+        Assert.assertEquals(List.of("r1:a", "r2:a", "w2:b", "w1:b"), events);
+    }
+
+    @Test
+    public void testAddAndReplace() throws Exception {
+        var r1 = new ReadHandler("r1");
+        var r2 = new ReadHandler("r2");
+        var r3 = new ReadHandler("r3");
+        pipeline.addLast(r2)
+                .addFirst(r1)
+                .addAfter(r2, r3)
+                .addBefore(r1, new ReadHandler("r0"))
+                .replace(r2, new ReadHandler("r2'"))
+                .remove(r3);
+        inEventLoop(() -> pipeline.fireChannelRead("a"));
+        Assert.assertEquals(List.of("r0:a", "r1:a", "r2':a"), events);
+        Assert.assertThrows(IllegalArgumentException.class, () -> pipeline.addBefore(r3, new ReadHandler("r4")));
+    }
+
+    @Test
+    public void testRemoveSelfWhenHandling() throws Exception {
+        pipeline.addLast(new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                // e.g. a protocol upgrade handler
+                pipeline.remove(this);
+                pipeline.addLast(new ReadHandler("upgraded"));
+                ctx.fireChannelRead(o);
+            }
+        }).addLast(new ReadHandler("r1"));
+        inEventLoop(() -> {
+            pipeline.fireChannelRead("a");
+            pipeline.fireChannelRead("b");
+        });
+        // the removed context forwards "a" to r1, and r1 forwards it along the latest pipeline
+        Assert.assertEquals(List.of("r1:a", "upgraded:a", "r1:b", "upgraded:b"), events);
+    }
+
+    @Test
+    public void testModifyWhileDispatching() throws Exception {
+        var received = new AtomicInteger();
+        pipeline.addLast(new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                received.incrementAndGet();
+            }
+        });
+        var stop = new AtomicBoolean();
+        var modifierDone = new CountDownLatch(1);
+        new Thread(() -> {
+            while (!stop.get()) {
+                var h = new DefaultChannelDuplexHandler() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object o) {
+                        ctx.fireChannelRead(o);
+                    }
+                };
+                pipeline.addFirst(h);
+                pipeline.remove(h);
+            }
+            modifierDone.countDown();
+        }).start();
+        for (int i = 0; i < 100; i++) {
+            inEventLoop(() -> {
+                for (int j = 0; j < 100; j++) {
+                    pipeline.fireChannelRead(j);
+                }
+            });
+        }
+        stop.set(true);
+        modifierDone.await();
+        Assert.assertEquals(100 * 100, received.get());
+        Assert.assertEquals(3, pipeline.contexts.length);
+    }
+
+    @Test
+    public void testCoalesceOutboundFromOtherThreads() throws Exception {
+        pipeline.addLast(new WriteHandler("w1") {
+            @Override
+            public void writeAndFlush(ChannelHandlerContext ctx, Object o) {
+                events.add("wf1:" + o);
+            }
+
+            @Override
+            public void flush(ChannelHandlerContext ctx) {
+                events.add("flush");
+            }
+
+            @Override
+            public void close(ChannelHandlerContext ctx) {
+                events.add("close");
+            }
+        });
+        // block the eventloop, so that the events are drained together
+        var latch = new CountDownLatch(1);
+        eventLoop.submitTask(() -> {
+            latch.await();
+            return null;
+        });
+        pipeline.fireChannelWrite("a");
+        pipeline.fireChannelWriteAndFlush("b");
+        pipeline.fireChannelWrite("c");
+        pipeline.fireChannelFlush();
+        pipeline.fireChannelWrite("d");
+        pipeline.fireChannelFlush();
+        pipeline.fireChannelClose();
+        latch.countDown();
+        inEventLoop(() -> {});
+        // in order, writeAndFlush is kept, and the flushes of the writes after it are coalesced before close
+        Assert.assertEquals(List.of("w1:a", "wf1:b", "w1:c", "w1:d", "flush", "close"), events);
+    }
+}
@@ -0,0 +1,102 @@
+package org.jaybill.jbio.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testExpire_inDeadlineOrder() throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "timer-test-");
+        try {
+            var timer = new HashedWheelTimer(TICK, 64, 0);
+            var t1 = new ScheduledTask(loop, () -> {}, 3 * TICK, 0);
+            var t2 = new ScheduledTask(loop, () -> {}, TICK, 0);
+            var t3 = new ScheduledTask(loop, () -> {}, 200 * TICK, 0); // more than one round
+            timer.schedule(t1);
+            timer.schedule(t2);
+            timer.schedule(t3);
+            Assert.assertEquals(3, timer.size());
+            Assert.assertEquals(2 * TICK, timer.nanosToNextTick(0));
+
+            var expired = new ArrayList<ScheduledTask>();
+            timer.expire(2 * TICK, expired::add);
+            Assert.assertEquals(1, expired.size());
+            Assert.assertSame(t2, expired.get(0));
+
+            timer.expire(4 * TICK, expired::add);
+            Assert.assertEquals(2, expired.size());
+            Assert.assertSame(t1, expired.get(1));
+
+            // t3 has visited its bucket several times, but the rounds have not run out
+            timer.expire(150 * TICK, expired::add);
+            Assert.assertEquals(2, expired.size());
+            timer.expire(201 * TICK, expired::add);
+            Assert.assertEquals(3, expired.size());
+            Assert.assertSame(t3, expired.get(2));
+            Assert.assertEquals(0, timer.size());
+            Assert.assertEquals(-1, timer.nanosToNextTick(201 * TICK));
+        } finally {
+            loop.close().get(3, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "timer-test-");
+        try {
+            var timer = new HashedWheelTimer(TICK, 64, 0);
+            var t1 = new ScheduledTask(loop, () -> {}, 5 * TICK, 0);
+            var t2 = new ScheduledTask(loop, () -> {}, 5 * TICK, 0);
+            timer.schedule(t1);
+            timer.schedule(t2);
+            timer.remove(t1);
+            Assert.assertEquals(1, timer.size());
+            timer.remove(t1); // remove twice is ok
+            Assert.assertEquals(1, timer.size());
+
+            var expired = new ArrayList<ScheduledTask>();
+            timer.expire(10 * TICK, expired::add);
+            Assert.assertEquals(1, expired.size());
+            Assert.assertSame(t2, expired.get(0));
+        } finally {
+            loop.close().get(3, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testEventLoop_scheduleAndCancel() throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "timer-test-");
+        var counter = new AtomicInteger();
+        var cancelled = loop.scheduleTask(counter::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        var done = loop.scheduleTask(counter::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+        cancelled.cancel(false);
+        done.get(3, TimeUnit.SECONDS);
+        Assert.assertEquals(1, counter.get());
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testEventLoop_scheduleAtFixedRate() throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "timer-test-");
+        var counter = new AtomicInteger();
+        var reached = new CompletableFuture<Void>();
+        var future = loop.scheduleAtFixedRate(() -> {
+            if (counter.incrementAndGet() == 3) {
+                reached.complete(null);
+            }
+        }, 10, 10, TimeUnit.MILLISECONDS);
+        reached.get(3, TimeUnit.SECONDS);
+        Assert.assertFalse(future.isDone());
+        future.cancel(false);
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+}
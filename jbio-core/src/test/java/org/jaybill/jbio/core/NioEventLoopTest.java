@@ -0,0 +1,397 @@
+package org.jaybill.jbio.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioEventLoopTest {
+
+    private NioEventLoop newEventLoop(RejectedTaskHandler handler) {
+        var config = new NioEventLoopConfig();
+        config.setTaskQueueInitialCapacity(2);
+        config.setTaskQueueMaxCapacity(4);
+        config.setRejectedTaskHandler(handler);
+        return new NioEventLoop(SelectorProvider.provider(), "loop-test-", config);
+    }
+
+    // block the eventloop, and fill up its task queue
+    private CountDownLatch blockAndFill(NioEventLoop loop) throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var latch = new CountDownLatch(1);
+        loop.submitTask(() -> {
+            started.countDown();
+            latch.await();
+            return null;
+        });
+        started.await();
+        for (int i = 0; i < 4; i++) {
+            loop.submitTask(() -> null);
+        }
+        Assert.assertEquals(4, loop.metrics().pendingTasks());
+        return latch;
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        var loop = newEventLoop(RejectedTaskHandlers.REJECT);
+        var latch = blockAndFill(loop);
+        var future = loop.submitTask(() -> null);
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectTaskException);
+        }
+        Assert.assertEquals(1, loop.metrics().overflowTasks());
+        Assert.assertEquals(1, loop.metrics().rejectedTasks());
+        latch.countDown();
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        var loop = newEventLoop(RejectedTaskHandlers.CALLER_RUNS);
+        var latch = blockAndFill(loop);
+        var future = loop.submitTask(Thread::currentThread);
+        Assert.assertSame(Thread.currentThread(), future.get(1, TimeUnit.SECONDS));
+        latch.countDown();
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        var loop = newEventLoop(RejectedTaskHandlers.SPILL);
+        var latch = blockAndFill(loop);
+        var futures = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            futures.add(loop.submitTask(() -> n));
+        }
+        Assert.assertEquals(10, loop.metrics().spilledTasks());
+        latch.countDown();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, futures.get(i).get(3, TimeUnit.SECONDS).intValue());
+        }
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        var loop = newEventLoop(RejectedTaskHandlers.BLOCK);
+        var latch = blockAndFill(loop);
+        var submitted = new CompletableFuture<CompletableFuture<Boolean>>();
+        new Thread(() -> submitted.complete(loop.submitTask(() -> true))).start();
+        Thread.sleep(100);
+        Assert.assertFalse(submitted.isDone()); // blocking
+        latch.countDown();
+        Assert.assertTrue(submitted.get(3, TimeUnit.SECONDS).get(3, TimeUnit.SECONDS));
+        Assert.assertEquals(0, loop.metrics().rejectedTasks());
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testOptimizeSelectedKeys() throws Exception {
+        var selector = SelectorProvider.provider().openSelector();
+        var keys = SelectedSelectionKeySet.install(selector);
+        Assert.assertNotNull(keys);
+        Assert.assertSame(keys, selector.selectedKeys());
+        selector.close();
+    }
+
+    @Test
+    public void testRebuildSelector() throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "loop-test-");
+        var pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        var readable = new CompletableFuture<Void>();
+        var ch = new AbstractNioChannel() {
+            @Override
+            void ioEvent() {
+                readable.complete(null);
+            }
+        };
+        loop.submitTask(() -> ch.selectionKey = pipe.source().register(loop.selector(), SelectionKey.OP_READ, ch))
+                .get(3, TimeUnit.SECONDS);
+        var oldSelector = loop.selector();
+        loop.submitTask(() -> {
+            loop.rebuildSelector();
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, loop.metrics().selectorRebuilds());
+        Assert.assertFalse(oldSelector.isOpen());
+        Assert.assertSame(loop.selector(), ch.selectionKey.selector());
+        Assert.assertEquals(SelectionKey.OP_READ, ch.selectionKey.interestOps());
+
+        // the channel still works with the new selector
+        pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+        readable.get(3, TimeUnit.SECONDS);
+        loop.close().get(3, TimeUnit.SECONDS);
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void testTaskBudget_maxTasksPerIteration() throws Exception {
+        var config = new NioEventLoopConfig();
+        config.setIoRatio(100); // no time limit
+        config.setMaxTasksPerIteration(8);
+        int ranAtIo = runBacklogWithIo(config, 100, 0);
+        // the io is processed right after the rest of the current batch
+        Assert.assertTrue("ran " + ranAtIo, ranAtIo <= 8);
+    }
+
+    @Test
+    public void testTaskBudget_ioRatio() throws Exception {
+        var config = new NioEventLoopConfig();
+        config.setIoRatio(1);
+        config.setMaxTasksPerIteration(Integer.MAX_VALUE);
+        // each 64 tasks take much longer than 99 times of the io
+        int ranAtIo = runBacklogWithIo(config, 640, TimeUnit.MICROSECONDS.toNanos(100));
+        Assert.assertTrue("ran " + ranAtIo, ranAtIo <= 64);
+    }
+
+    /**
+     * Block the eventloop, queue a backlog of tasks and make a pipe readable, then unblock it.
+     * @return the number of the backlog tasks run before the io event is processed
+     */
+    private int runBacklogWithIo(NioEventLoopConfig config, int tasks, long taskNanos) throws Exception {
+        var loop = new NioEventLoop(SelectorProvider.provider(), "loop-test-", config);
+        var pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        var ran = new AtomicInteger();
+        var ranAtIo = new CompletableFuture<Integer>();
+        var ch = new AbstractNioChannel() {
+            @Override
+            void ioEvent() {
+                try {
+                    pipe.source().read(ByteBuffer.allocate(16));
+                } catch (IOException e) {
+                    ranAtIo.completeExceptionally(e);
+                }
+                ranAtIo.complete(ran.get());
+            }
+        };
+        try {
+            loop.submitTask(() -> ch.selectionKey = pipe.source().register(loop.selector(), SelectionKey.OP_READ, ch))
+                    .get(3, TimeUnit.SECONDS);
+            var started = new CountDownLatch(1);
+            var latch = new CountDownLatch(1);
+            loop.execute(() -> {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            var done = new CountDownLatch(tasks);
+            for (int i = 0; i < tasks; i++) {
+                loop.execute(() -> {
+                    long end = System.nanoTime() + taskNanos;
+                    while (System.nanoTime() < end) {
+                        Thread.onSpinWait();
+                    }
+                    ran.incrementAndGet();
+                    done.countDown();
+                });
+            }
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            latch.countDown();
+
+            int n = ranAtIo.get(3, TimeUnit.SECONDS);
+            Assert.assertTrue(n < tasks);
+            // the rest of the backlog still runs
+            Assert.assertTrue(done.await(3, TimeUnit.SECONDS));
+            return n;
+        } finally {
+            loop.close().get(3, TimeUnit.SECONDS);
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void testWakeup_inEventLoop() throws Exception {
+        var provider = new CountingSelectorProvider();
+        var loop = newCountingEventLoop(provider);
+        var selector = provider.selector;
+        int wakeups = loop.submitTask(() -> {
+            int before = selector.wakeups.get();
+            loop.execute(() -> {});
+            loop.scheduleTask(() -> {}, 10, TimeUnit.SECONDS);
+            return selector.wakeups.get() - before;
+        }).get(3, TimeUnit.SECONDS);
+        Assert.assertEquals(0, wakeups);
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testWakeup_fromOtherThread() throws Exception {
+        var provider = new CountingSelectorProvider();
+        var loop = newCountingEventLoop(provider);
+        var selector = provider.selector;
+        // no scheduled task yet, so the eventloop blocks until be woken up
+        awaitBlocking(loop, selector);
+        int before = selector.wakeups.get();
+
+        // a task is run right away
+        var ran = new CountDownLatch(1);
+        loop.execute(ran::countDown);
+        Assert.assertTrue(ran.await(3, TimeUnit.SECONDS));
+        Assert.assertEquals(before + 1, selector.wakeups.get());
+
+        // woken up again once it blocks again
+        selector.awaitSelecting();
+        var ranAgain = new CountDownLatch(1);
+        loop.execute(ranAgain::countDown);
+        Assert.assertTrue(ranAgain.await(3, TimeUnit.SECONDS));
+        Assert.assertEquals(before + 2, selector.wakeups.get());
+
+        // the eventloop wakes up before the deadline by itself
+        loop.scheduleTask(() -> {}, 10, TimeUnit.SECONDS);
+        awaitBlocking(loop, selector);
+        before = selector.wakeups.get();
+        loop.scheduleTask(() -> {}, 20, TimeUnit.SECONDS);
+        Assert.assertEquals(before, selector.wakeups.get());
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    private NioEventLoop newCountingEventLoop(CountingSelectorProvider provider) throws Exception {
+        var config = new NioEventLoopConfig();
+        config.setOptimizeSelectedKeys(false);
+        var loop = new NioEventLoop(provider, "loop-test-", config);
+        // start the eventloop
+        loop.submitTask(() -> null).get(3, TimeUnit.SECONDS);
+        return loop;
+    }
+
+    /**
+     * Open the selectors counting the wakeup() calls, they can not register channels.
+     */
+    // run a task first, so that the select seen is not the one already woken up
+    private static void awaitBlocking(NioEventLoop loop, CountingSelector selector) throws InterruptedException {
+        var ran = new CountDownLatch(1);
+        loop.execute(ran::countDown);
+        Assert.assertTrue(ran.await(3, TimeUnit.SECONDS));
+        selector.awaitSelecting();
+    }
+
+    private static class CountingSelectorProvider extends SelectorProvider {
+        private final SelectorProvider delegate = SelectorProvider.provider();
+        private volatile CountingSelector selector;
+
+        @Override
+        public AbstractSelector openSelector() throws IOException {
+            selector = new CountingSelector(this, delegate.openSelector());
+            return selector;
+        }
+
+        @Override
+        public DatagramChannel openDatagramChannel() throws IOException {
+            return delegate.openDatagramChannel();
+        }
+
+        @Override
+        public DatagramChannel openDatagramChannel(ProtocolFamily family) throws IOException {
+            return delegate.openDatagramChannel(family);
+        }
+
+        @Override
+        public Pipe openPipe() throws IOException {
+            return delegate.openPipe();
+        }
+
+        @Override
+        public ServerSocketChannel openServerSocketChannel() throws IOException {
+            return delegate.openServerSocketChannel();
+        }
+
+        @Override
+        public SocketChannel openSocketChannel() throws IOException {
+            return delegate.openSocketChannel();
+        }
+    }
+
+    private static class CountingSelector extends AbstractSelector {
+        private final Selector delegate;
+        private final AtomicInteger wakeups = new AtomicInteger();
+        private volatile boolean selecting;
+
+        CountingSelector(SelectorProvider provider, Selector delegate) {
+            super(provider);
+            this.delegate = delegate;
+        }
+
+        // wait until the eventloop blocks in select()
+        void awaitSelecting() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 3000;
+            while (!selecting) {
+                Assert.assertTrue("wait timeout", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        @Override
+        protected void implCloseSelector() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<SelectionKey> keys() {
+            return delegate.keys();
+        }
+
+        @Override
+        public Set<SelectionKey> selectedKeys() {
+            return delegate.selectedKeys();
+        }
+
+        @Override
+        public int selectNow() throws IOException {
+            return delegate.selectNow();
+        }
+
+        @Override
+        public int select(long timeout) throws IOException {
+            selecting = true;
+            try {
+                return delegate.select(timeout);
+            } finally {
+                selecting = false;
+            }
+        }
+
+        @Override
+        public int select() throws IOException {
+            return this.select(0);
+        }
+
+        @Override
+        public Selector wakeup() {
+            wakeups.incrementAndGet();
+            delegate.wakeup();
+            return this;
+        }
+    }
+}
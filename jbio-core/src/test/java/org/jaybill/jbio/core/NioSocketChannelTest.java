@@ -1,19 +1,25 @@
 package org.jaybill.jbio.core;
 
+import org.jaybill.jbio.core.ex.ChannelClosedException;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 public class NioSocketChannelTest {
 
@@ -299,17 +305,17 @@ public class NioSocketChannelTest {
     /**
      * send buffer is full
      */
-    @Test
+    @Test(timeout = 60 * 1000)
     public void test_sendBufferFull() throws IOException, ExecutionException, InterruptedException, TimeoutException {
-        var msg = "hello world, I am very happy!";
+        // much larger than the TCP send buffer, so that one response fills it
+        var msg = new byte[4 * 1024 * 1024];
         int port = initialPort++;
         System.out.println("port = " + port);
         var fullFuture = new CompletableFuture<Boolean>();
         var handler = new DefaultChannelDuplexHandler() {
             @Override
             public void channelRead(ChannelHandlerContext ctx, Object o) {
-                ctx.channel().pipeline()
-                        .fireChannelWriteAndFlush(ByteBuffer.wrap(msg.getBytes(StandardCharsets.UTF_8)));
+                ctx.channel().pipeline().fireChannelWriteAndFlush(ByteBuffer.wrap(msg));
                 ctx.fireChannelRead(o);
             }
 
@@ -330,17 +336,511 @@ public class NioSocketChannelTest {
                 .initializer(null, ch -> ch.pipeline().addLast(handler));
         server.start("127.0.0.1", port).join();
 
-        // client, always send and don't read
-        var client = new Socket();
-        client.connect(new InetSocketAddress("127.0.0.1", port));
-        client.setOption(StandardSocketOptions.SO_RCVBUF, 1);
-        long startTime = System.currentTimeMillis();
-        while ((System.currentTimeMillis() - startTime) <= 30 * 1000) { // try to wait for send buffer full.
-            if (fullFuture.isDone()) {
-                break;
-            }
+        // client, send and don't read
+        try (var client = new Socket()) {
+            client.connect(new InetSocketAddress("127.0.0.1", port));
+            client.setOption(StandardSocketOptions.SO_RCVBUF, 1);
             client.getOutputStream().write("1".getBytes(StandardCharsets.UTF_8));
+            Assert.assertTrue(fullFuture.get(30, TimeUnit.SECONDS));
+        } finally {
+            server.closeAll();
+        }
+    }
+
+    /**
+     * the ref counted buffer is released once it has been flushed
+     */
+    @Test
+    public void test_releaseAfterFlush() throws Exception {
+        int port = initialPort++;
+        var releasedFuture = new CompletableFuture<ByteBuffer>();
+        var allocator = new UnpooledByteBufferAllocator() {
+            @Override
+            public void release(ByteBuffer buf) {
+                releasedFuture.complete(buf);
+            }
+        };
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var in = (ByteBuffer) o;
+                var out = allocator.allocateRefCounted(in.remaining());
+                out.buffer().put(in).flip();
+                ctx.channel().pipeline().fireChannelWriteAndFlush(out);
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            socket.getOutputStream().write("hi".getBytes(StandardCharsets.UTF_8));
+            byte[] bs = new byte[2];
+            Assert.assertEquals(2, socket.getInputStream().readNBytes(bs, 0, 2));
+            Assert.assertEquals("hi", new String(bs, StandardCharsets.UTF_8));
+            Assert.assertFalse(releasedFuture.get(3, TimeUnit.SECONDS).hasRemaining());
+        }
+    }
+
+    /**
+     * the adaptive read buffer grows with the traffic, so it needs far fewer reads than a fixed 128 bytes buffer
+     */
+    @Test
+    public void test_adaptiveRead() throws Exception {
+        int port = initialPort++;
+        int total = 4 * 1024 * 1024;
+        var received = new AtomicInteger();
+        var readFuture = new CompletableFuture<NioEventLoopMetrics>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                if (received.addAndGet(((ByteBuffer) o).remaining()) == total) {
+                    readFuture.complete(((NioEventLoop) ctx.eventloop()).metrics());
+                }
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            var out = socket.getOutputStream();
+            var bs = new byte[64 * 1024];
+            for (int i = 0; i < total / bs.length; i++) {
+                out.write(bs);
+            }
+            var metrics = readFuture.get(10, TimeUnit.SECONDS);
+            System.out.println("read calls per MB = " + metrics.readCallsPerMB());
+            Assert.assertTrue(metrics.readCallsPerMB() < 1024 * 1024 / 128);
+        }
+    }
+
+    /**
+     * write the responses of the reads, and flush them once the read loop is done
+     */
+    @Test
+    public void test_readComplete() throws Exception {
+        int port = initialPort++;
+        var reads = new AtomicInteger();
+        var readCompletes = new AtomicInteger();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                reads.incrementAndGet();
+                var in = (ByteBuffer) o;
+                var out = ByteBuffer.allocate(in.remaining());
+                out.put(in).flip();
+                ctx.channel().pipeline().fireChannelWrite(out);
+            }
+
+            @Override
+            public void channelReadComplete(ChannelHandlerContext ctx) {
+                readCompletes.incrementAndGet();
+                ctx.channel().pipeline().fireChannelFlush();
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            var bs = new byte[256 * 1024];
+            socket.getOutputStream().write(bs);
+            Assert.assertEquals(bs.length, socket.getInputStream().readNBytes(new byte[bs.length], 0, bs.length));
+            Assert.assertTrue(readCompletes.get() > 0);
+            Assert.assertTrue(readCompletes.get() <= reads.get());
+        }
+    }
+
+    /**
+     * the messages which are partially written are written again in order
+     */
+    @Test
+    public void test_autoRead() throws Exception {
+        int port = initialPort++;
+        var received = new AtomicInteger();
+        var channel = new CompletableFuture<NioChannel>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                received.addAndGet(((ByteBuffer) o).remaining());
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> {
+                    ch.setAutoRead(false);
+                    ch.pipeline().addLast(handler);
+                    channel.complete(ch);
+                });
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            socket.getOutputStream().write(new byte[1024]);
+            var ch = channel.get(3, TimeUnit.SECONDS);
+            Thread.sleep(200);
+            Assert.assertEquals(0, received.get());
+
+            // one read for one request
+            ch.read();
+            waitUntil(() -> received.get() > 0);
+            int once = received.get();
+            socket.getOutputStream().write(new byte[1024]);
+            Thread.sleep(200);
+            Assert.assertEquals(once, received.get());
+
+            ch.setAutoRead(true);
+            waitUntil(() -> received.get() == 2048);
+        }
+    }
+
+    @Test
+    public void test_partialWrite() throws Exception {
+        int port = initialPort++;
+        int count = 300;
+        int size = 16 * 1024;
+        var metricsFuture = new CompletableFuture<NioEventLoopMetrics>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                metricsFuture.complete(((NioEventLoop) ctx.eventloop()).metrics());
+                for (int i = 0; i < count; i++) {
+                    var buf = ByteBuffer.allocate(size);
+                    while (buf.hasRemaining()) {
+                        buf.put((byte) i);
+                    }
+                    ctx.channel().pipeline().fireChannelWrite(buf.flip());
+                }
+                ctx.channel().pipeline().fireChannelFlush();
+            }
+        };
+        // a small send buffer, so that it is full even if the client reads fast
+        var socketChannelConfig = NioSocketChannelConfigTemplate.DEFAULT;
+        var sndBuf = socketChannelConfig.getOptions().put(SocketOption.SO_SNDBUF, 16 * 1024);
+        try {
+            var server = JBIOServer.newInstance()
+                    .config(NioChannelConfigTemplate.DEFAULT, socketChannelConfig)
+                    .eventLoop(1, 1)
+                    .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+            server.start("127.0.0.1", port).join();
+
+            try (var socket = new Socket()) {
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("127.0.0.1", port));
+                socket.getOutputStream().write(1);
+                byte[] bs = socket.getInputStream().readNBytes(count * size);
+                Assert.assertEquals(count * size, bs.length);
+                for (int i = 0; i < bs.length; i++) {
+                    Assert.assertEquals((byte) (i / size), bs[i]);
+                }
+                // the adaptive spin gives up on the first zero-byte write
+                var metrics = metricsFuture.get();
+                Assert.assertTrue(metrics.sendBufferFulls() > 0);
+                Assert.assertTrue(metrics.writeSpins() < metrics.sendBufferFulls() * 100);
+                System.out.println("send buffer fulls = " + metrics.sendBufferFulls() + ", write spins = " + metrics.writeSpins());
+            } finally {
+                server.closeAll();
+            }
+        } finally {
+            if (sndBuf != null) {
+                socketChannelConfig.getOptions().put(SocketOption.SO_SNDBUF, sndBuf);
+            } else {
+                socketChannelConfig.getOptions().remove(SocketOption.SO_SNDBUF);
+            }
+        }
+    }
+
+    /**
+     * writeAndFlush writes to the socket directly, the bytes left over are written on OP_WRITE,
+     * and they are watched by the watermarks like the other writes
+     */
+    @Test
+    public void test_writeThrough() throws Exception {
+        int port = initialPort++;
+        int size = 1024 * 1024;
+        var promise = new WritePromise();
+        var unWritable = new CompletableFuture<Void>();
+        var writable = new CompletableFuture<Void>();
+        var sendBufferFull = new CompletableFuture<Void>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var in = (ByteBuffer) o;
+                var out = ByteBuffer.allocate(in.remaining());
+                out.put(in).flip();
+                ctx.channel().pipeline().fireChannelWriteAndFlush(out);
+                // too large to be written at once
+                var large = ByteBuffer.allocate(size);
+                while (large.hasRemaining()) {
+                    large.put((byte) large.position());
+                }
+                ctx.channel().pipeline().fireChannelWriteAndFlush(large.flip(), promise);
+            }
+
+            @Override
+            public void channelUnWritable(ChannelHandlerContext ctx) {
+                unWritable.complete(null);
+            }
+
+            @Override
+            public void channelWritable(ChannelHandlerContext ctx) {
+                writable.complete(null);
+            }
+
+            @Override
+            public void channelSendBufferFull(ChannelHandlerContext ctx) {
+                sendBufferFull.complete(null);
+            }
+        };
+        var socketChannelConfig = NioSocketChannelConfigTemplate.DEFAULT;
+        socketChannelConfig.setWriteThrough(true);
+        var sndBuf = socketChannelConfig.getOptions().put(SocketOption.SO_SNDBUF, 16 * 1024);
+        socketChannelConfig.setHighWatermark(64 * 1024);
+        socketChannelConfig.setLowWatermark(32 * 1024);
+        try {
+            var server = JBIOServer.newInstance()
+                    .config(NioChannelConfigTemplate.DEFAULT, socketChannelConfig)
+                    .eventLoop(1, 1)
+                    .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+            server.start("127.0.0.1", port).join();
+
+            try (var socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port));
+                socket.getOutputStream().write("hi".getBytes(StandardCharsets.UTF_8));
+                var in = socket.getInputStream();
+                Assert.assertEquals("hi", new String(in.readNBytes(2), StandardCharsets.UTF_8));
+                unWritable.get(3, TimeUnit.SECONDS);
+                sendBufferFull.get(3, TimeUnit.SECONDS);
+                byte[] bs = in.readNBytes(size);
+                Assert.assertEquals(size, bs.length);
+                for (int i = 0; i < size; i++) {
+                    Assert.assertEquals((byte) i, bs[i]);
+                }
+                promise.get(3, TimeUnit.SECONDS);
+                writable.get(3, TimeUnit.SECONDS);
+            } finally {
+                server.closeAll();
+            }
+        } finally {
+            socketChannelConfig.setWriteThrough(false);
+            if (sndBuf != null) {
+                socketChannelConfig.getOptions().put(SocketOption.SO_SNDBUF, sndBuf);
+            } else {
+                socketChannelConfig.getOptions().remove(SocketOption.SO_SNDBUF);
+            }
+            socketChannelConfig.setHighWatermark(1024 * 1024 * 16);
+            socketChannelConfig.setLowWatermark(1024 * 1024 * 8);
+        }
+    }
+
+    /**
+     * the write promise is completed once the message is flushed, and failed once the channel is closed
+     */
+    @Test
+    public void test_writePromise() throws Exception {
+        int port = initialPort++;
+        var promise = new WritePromise();
+        var seenPromise = new CompletableFuture<WritePromise>();
+        var readFuture = new CompletableFuture<NioChannel>();
+        var closedFuture = new CompletableFuture<NioChannel>();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                readFuture.complete(ctx.channel());
+                var in = (ByteBuffer) o;
+                var out = ByteBuffer.allocate(in.remaining());
+                out.put(in).flip();
+                ctx.channel().pipeline().fireChannelWrite(out, promise);
+                ctx.channel().pipeline().fireChannelFlush();
+            }
+
+            @Override
+            public void write(ChannelHandlerContext ctx, Object o) {
+                // the promise is passed along implicitly
+                seenPromise.complete(ctx.writePromise());
+                ctx.fireChannelWrite(o);
+            }
+
+            @Override
+            public void channelClosed(ChannelHandlerContext ctx) {
+                closedFuture.complete(ctx.channel());
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            socket.getOutputStream().write("hi".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("hi", new String(socket.getInputStream().readNBytes(2), StandardCharsets.UTF_8));
+            promise.get(3, TimeUnit.SECONDS);
+            Assert.assertSame(promise, seenPromise.get(3, TimeUnit.SECONDS));
+
+            // the completed promise can not be reused, the write is dropped
+            var pipeline = readFuture.get(3, TimeUnit.SECONDS).pipeline();
+            var reused = new RefCountedByteBuffer(ByteBuffer.wrap("xx".getBytes(StandardCharsets.UTF_8)),
+                    new UnpooledByteBufferAllocator());
+            pipeline.fireChannelWriteAndFlush(reused, promise);
+            pipeline.fireChannelWriteAndFlush(ByteBuffer.wrap("ok".getBytes(StandardCharsets.UTF_8)));
+            Assert.assertEquals("ok", new String(socket.getInputStream().readNBytes(2), StandardCharsets.UTF_8));
+            Assert.assertEquals(0, reused.refCnt());
+        }
+
+        var ch = closedFuture.get(3, TimeUnit.SECONDS);
+        var failed = new WritePromise();
+        ch.pipeline().fireChannelWriteAndFlush(ByteBuffer.allocate(1), failed);
+        try {
+            failed.get(3, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ChannelClosedException);
+        }
+    }
+
+    /**
+     * the entries without unsent bytes are still written, so that their promises complete
+     */
+    @Test
+    public void test_zeroLengthWrite() throws Exception {
+        int port = initialPort++;
+        var promise = new WritePromise();
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var pipeline = ctx.channel().pipeline();
+                pipeline.fireChannelWrite(ByteBuffer.wrap("a".getBytes(StandardCharsets.UTF_8)));
+                pipeline.fireChannelWrite(ByteBuffer.allocate(0), promise);
+                pipeline.fireChannelFlush();
+            }
+        };
+        var socketChannelConfig = NioSocketChannelConfigTemplate.DEFAULT;
+        socketChannelConfig.setMaxBufferNumPerWrite(1); // the empty buffer is left after the first write
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, socketChannelConfig)
+                .eventLoop(1, 1)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        server.start("127.0.0.1", port).join();
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            socket.getOutputStream().write(1);
+            Assert.assertEquals('a', socket.getInputStream().read());
+            promise.get(3, TimeUnit.SECONDS);
+        } finally {
+            socketChannelConfig.setMaxBufferNumPerWrite(100);
+            server.closeAll();
+        }
+    }
+
+    /**
+     * the file region is transferred in parts to a slow reader, in order with the buffers around it
+     */
+    @Test
+    public void test_fileRegion() throws Exception {
+        int port = initialPort++;
+        int size = 4 * 1024 * 1024;
+        var file = Files.createTempFile("jbio-file-region", ".bin");
+        try {
+            var content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i % 251);
+            }
+            Files.write(file, content);
+            var regionFuture = new CompletableFuture<FileRegion>();
+            var handler = new DefaultChannelDuplexHandler() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object o) {
+                    try {
+                        var region = new FileRegion(FileChannel.open(file, StandardOpenOption.READ), 0, size);
+                        regionFuture.complete(region);
+                        var pipeline = ctx.channel().pipeline();
+                        pipeline.fireChannelWrite(ByteBuffer.wrap("head".getBytes(StandardCharsets.UTF_8)));
+                        pipeline.fireChannelWrite(region);
+                        pipeline.fireChannelWriteAndFlush(ByteBuffer.wrap("tail".getBytes(StandardCharsets.UTF_8)));
+                    } catch (IOException e) {
+                        regionFuture.completeExceptionally(e);
+                    }
+                }
+            };
+            var server = JBIOServer.newInstance()
+                    .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                    .eventLoop(1, 1)
+                    .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+            server.start("127.0.0.1", port).join();
+
+            try (var socket = new Socket()) {
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("127.0.0.1", port));
+                socket.getOutputStream().write(1);
+                var in = socket.getInputStream();
+                Assert.assertEquals("head", new String(in.readNBytes(4), StandardCharsets.UTF_8));
+                Assert.assertArrayEquals(content, in.readNBytes(size));
+                Assert.assertEquals("tail", new String(in.readNBytes(4), StandardCharsets.UTF_8));
+            }
+            // released after it has been written, and the file is closed
+            var region = regionFuture.get(3, TimeUnit.SECONDS);
+            Assert.assertEquals(0, region.refCnt());
+            Assert.assertFalse(region.file().isOpen());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void test_reusePort() throws Exception {
+        int port = initialPort++;
+        var handler = new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                var in = (ByteBuffer) o;
+                var out = ByteBuffer.allocate(in.remaining());
+                out.put(in).flip();
+                ctx.channel().pipeline().fireChannelWriteAndFlush(out);
+            }
+        };
+        var server = JBIOServer.newInstance()
+                .config(NioChannelConfigTemplate.DEFAULT, NioSocketChannelConfigTemplate.DEFAULT)
+                .eventLoop(1, 2)
+                .initializer(null, (ch) -> ch.pipeline().addLast(handler));
+        try {
+            Assert.assertThrows(IllegalArgumentException.class, () -> server.startReusePort("127.0.0.1", 0));
+            var channels = server.startReusePort("127.0.0.1", port).get(3, TimeUnit.SECONDS);
+            Assert.assertEquals(2, channels.size());
+            for (int i = 0; i < 8; i++) {
+                try (var socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("127.0.0.1", port));
+                    socket.getOutputStream().write(i);
+                    Assert.assertEquals(i, socket.getInputStream().read());
+                }
+            }
+        } finally {
+            server.closeAll().get(3, TimeUnit.SECONDS);
+        }
+        // the listeners are closed with the server
+        try (var socket = new Socket()) {
+            Assert.assertThrows(ConnectException.class, () -> socket.connect(new InetSocketAddress("127.0.0.1", port)));
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("wait timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
         }
-        Assert.assertTrue(fullFuture.get(1, TimeUnit.SECONDS));
     }
 }
@@ -0,0 +1,128 @@
+package org.jaybill.jbio.core;
+
+import org.jaybill.jbio.core.ex.IllegalReferenceCountException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class PooledByteBufferAllocatorTest {
+
+    @Test
+    public void testSizeClass() {
+        Assert.assertEquals(0, ByteBufferArena.sizeClass(0));
+        Assert.assertEquals(0, ByteBufferArena.sizeClass(64));
+        Assert.assertEquals(1, ByteBufferArena.sizeClass(65));
+        Assert.assertEquals(1, ByteBufferArena.sizeClass(128));
+        Assert.assertEquals(10, ByteBufferArena.sizeClass(64 * 1024));
+    }
+
+    @Test
+    public void testAllocateAndRelease() throws Exception {
+        // use a new eventloop to have an empty cache
+        var loop = new NioEventLoop(SelectorProvider.provider(), "pool-test-");
+        loop.submitTask(() -> {
+            var allocator = new PooledByteBufferAllocator();
+            var metrics = allocator.metrics();
+            long hits = Math.round(metrics.cacheHitRate() * metrics.allocations());
+
+            var rc = allocator.allocateRefCounted(100);
+            var buf = rc.buffer();
+            Assert.assertFalse(buf.isDirect());
+            Assert.assertEquals(128, buf.capacity());
+            Assert.assertEquals(100, buf.remaining());
+            buf.putInt(1);
+            Assert.assertTrue(rc.release());
+
+            var buf2 = allocator.allocateRefCounted(120);
+            Assert.assertSame(buf, buf2.buffer());
+            Assert.assertEquals(0, buf2.buffer().position());
+            Assert.assertEquals(120, buf2.buffer().limit());
+            buf2.release();
+            Assert.assertTrue(Math.round(metrics.cacheHitRate() * metrics.allocations()) >= hits + 1);
+            Assert.assertTrue(metrics.chunkBytes() > 0);
+            Assert.assertTrue(metrics.fragmentation() > 0);
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+        loop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDirectAndHuge() {
+        var allocator = new PooledDirectByteBufferAllocator();
+        var rc = allocator.allocateRefCounted(1000);
+        Assert.assertTrue(rc.buffer().isDirect());
+        Assert.assertEquals(1024, rc.buffer().capacity());
+        rc.release();
+
+        long huge = allocator.metrics().hugeAllocations();
+        var hugeBuf = allocator.allocateRefCounted(1024 * 1024);
+        Assert.assertEquals(1024 * 1024, hugeBuf.buffer().capacity());
+        Assert.assertEquals(huge + 1, allocator.metrics().hugeAllocations());
+        hugeBuf.release();
+    }
+
+    @Test
+    public void testPlainAllocateNotPooled() {
+        var allocator = new PooledByteBufferAllocator();
+        long allocations = allocator.metrics().allocations();
+        var buf = allocator.allocate(100);
+        Assert.assertEquals(100, buf.capacity());
+        // left to GC
+        allocator.release(buf);
+        Assert.assertEquals(allocations, allocator.metrics().allocations());
+    }
+
+    @Test
+    public void testReleaseTwice() throws Exception {
+        CompletableFuture.runAsync(() -> {
+            var allocator = new PooledByteBufferAllocator();
+            var metrics = allocator.metrics();
+            long used = metrics.usedBytes();
+            var rc = allocator.allocateRefCounted(128);
+            ReleaseUtil.retain(rc);
+            Assert.assertFalse(rc.release());
+            Assert.assertEquals(used + 128, metrics.usedBytes());
+
+            Assert.assertTrue(rc.release());
+            Assert.assertEquals(used, metrics.usedBytes());
+            Assert.assertThrows(IllegalReferenceCountException.class, rc::release);
+            // only handed out once
+            var rc2 = allocator.allocateRefCounted(128);
+            var rc3 = allocator.allocateRefCounted(128);
+            Assert.assertNotSame(rc2.buffer(), rc3.buffer());
+            rc2.release();
+            rc3.release();
+        }).get();
+    }
+
+    @Test
+    public void testRefCounted() {
+        var released = new ArrayList<ByteBuffer>();
+        ByteBufferAllocator allocator = new ByteBufferAllocator() {
+            @Override
+            public ByteBuffer allocate(int capacity) {
+                return ByteBuffer.allocate(capacity);
+            }
+
+            @Override
+            public void release(ByteBuffer buf) {
+                released.add(buf);
+            }
+        };
+        var rc = allocator.allocateRefCounted(16);
+        Assert.assertEquals(1, rc.refCnt());
+        Assert.assertSame(rc, ReleaseUtil.retain(rc));
+        Assert.assertFalse(ReleaseUtil.release(rc));
+        Assert.assertTrue(released.isEmpty());
+        Assert.assertTrue(rc.release());
+        Assert.assertEquals(List.of(rc.buffer()), released);
+        Assert.assertThrows(IllegalReferenceCountException.class, rc::release);
+        Assert.assertFalse(ReleaseUtil.release(ByteBuffer.allocate(1))); // not ref counted
+    }
+}
@@ -0,0 +1,158 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.*;
+import org.jaybill.jbio.core.ex.CorruptedFrameException;
+import org.jaybill.jbio.core.ex.TooLongFrameException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class FrameDecoderTest {
+
+    private NioEventLoop eventLoop;
+    private final List<String> frames = new ArrayList<>();
+    private final List<Throwable> exceptions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        eventLoop = new NioEventLoop(SelectorProvider.provider(), "decoder-test-");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventLoop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    // read the bytes by chunks of random sizes, like the socket does
+    private void read(ByteToMessageDecoder decoder, byte[] bytes) throws Exception {
+        var pipeline = this.newPipeline(decoder);
+        var random = new Random(1);
+        eventLoop.submitTask(() -> {
+            for (int i = 0; i < bytes.length; ) {
+                int n = Math.min(bytes.length - i, 1 + random.nextInt(7));
+                // the read buffer is reused after channelRead returns
+                var buf = ByteBuffer.allocate(16);
+                buf.put(bytes, i, n).flip();
+                pipeline.fireChannelRead(buf);
+                buf.clear().put(new byte[16]);
+                i += n;
+            }
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+    }
+
+    private ChannelPipeline newPipeline(ByteToMessageDecoder decoder) {
+        decoder.setAllocator(new UnpooledByteBufferAllocator());
+        var pipeline = new DefaultChannelPipeline(
+                new DefaultChannelDuplexHandler(), new DefaultChannelDuplexHandler(), null, eventLoop);
+        pipeline.addLast(decoder).addLast(new DefaultChannelDuplexHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object o) {
+                frames.add(StandardCharsets.UTF_8.decode((ByteBuffer) o).toString());
+            }
+
+            @Override
+            public void channelException(ChannelHandlerContext ctx, Throwable t) {
+                exceptions.add(t);
+            }
+        });
+        return pipeline;
+    }
+
+    private static byte[] lengthFields(String... frames) {
+        var buf = ByteBuffer.allocate(1024);
+        for (var frame : frames) {
+            var bs = frame.getBytes(StandardCharsets.UTF_8);
+            buf.putShort((short) bs.length).put(bs);
+        }
+        var bs = new byte[buf.position()];
+        buf.flip().get(bs);
+        return bs;
+    }
+
+    @Test
+    public void testLengthField() throws Exception {
+        for (var cumulation : ByteToMessageDecoder.Cumulation.values()) {
+            frames.clear();
+            exceptions.clear();
+            var decoder = new LengthFieldBasedFrameDecoder(12, 0, 2, 0, 2);
+            decoder.setCumulation(cumulation);
+            read(decoder, lengthFields("a", "", "0123456789", "too long frame", "bc"));
+            Assert.assertEquals(List.of("a", "", "0123456789", "bc"), frames);
+            Assert.assertEquals(1, exceptions.size());
+            Assert.assertTrue(exceptions.get(0) instanceof TooLongFrameException);
+            Assert.assertEquals(0, decoder.cumulatedBytes());
+        }
+    }
+
+    @Test
+    public void testLine() throws Exception {
+        var decoder = new LineBasedFrameDecoder(8);
+        read(decoder, "a\r\nbc\n\nfar too long line\n01234567\r\nd\nef".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(List.of("a", "bc", "", "01234567", "d"), frames);
+        Assert.assertEquals(1, exceptions.size());
+        Assert.assertEquals(2, decoder.cumulatedBytes());
+    }
+
+    @Test
+    public void testDelimiter() throws Exception {
+        var decoder = new DelimiterBasedFrameDecoder(8, false,
+                "||".getBytes(StandardCharsets.UTF_8), ";".getBytes(StandardCharsets.UTF_8));
+        read(decoder, "a||b;c|d||far too long frame;e;".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(List.of("a||", "b;", "c|d||", "e;"), frames);
+        Assert.assertEquals(1, exceptions.size());
+    }
+
+    /**
+     * the bytes and the expected length are consistent after decode() throws, on both the in-place and the cumulation path
+     */
+    @Test
+    public void testDecodeException() throws Exception {
+        var calls = new int[1];
+        var decoder = new ByteToMessageDecoder() {
+            @Override
+            protected Object decode(ChannelHandlerContext ctx, ByteBuffer in) {
+                calls[0]++;
+                if (calls[0] <= 2) {
+                    this.expect(100);
+                    if (calls[0] == 1) {
+                        throw new IllegalStateException("decoder bug");
+                    }
+                    throw new CorruptedFrameException("nothing skipped");
+                }
+                var frame = in.slice(in.position(), 1);
+                in.position(in.position() + 1);
+                return frame;
+            }
+        };
+        var pipeline = this.newPipeline(decoder);
+        eventLoop.submitTask(() -> {
+            var buf = ByteBuffer.allocate(16);
+            buf.put("ab".getBytes(StandardCharsets.UTF_8)).flip();
+            pipeline.fireChannelRead(buf);
+            Assert.assertEquals(2, decoder.cumulatedBytes());
+            Assert.assertEquals(0, exceptions.size());
+
+            buf.clear().put("c".getBytes(StandardCharsets.UTF_8)).flip();
+            pipeline.fireChannelRead(buf);
+            Assert.assertEquals(3, decoder.cumulatedBytes());
+            Assert.assertEquals(1, exceptions.size());
+
+            buf.clear().put("d".getBytes(StandardCharsets.UTF_8)).flip();
+            pipeline.fireChannelRead(buf);
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+        Assert.assertEquals(List.of("a", "b", "c", "d"), frames);
+        Assert.assertEquals(1, exceptions.size());
+        Assert.assertEquals(0, decoder.cumulatedBytes());
+    }
+}
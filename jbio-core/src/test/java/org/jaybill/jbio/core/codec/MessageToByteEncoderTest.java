@@ -0,0 +1,124 @@
+package org.jaybill.jbio.core.codec;
+
+import org.jaybill.jbio.core.*;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MessageToByteEncoderTest {
+
+    private NioEventLoop eventLoop;
+    private DefaultChannelPipeline pipeline;
+    // the messages reach the head, and the promise of each
+    private final List<String> written = new ArrayList<>();
+    private final List<WritePromise> promises = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        eventLoop = new NioEventLoop(SelectorProvider.provider(), "encoder-test-");
+        pipeline = new DefaultChannelPipeline(new HeadHandler(), new DefaultChannelDuplexHandler(), null, eventLoop);
+        var encoder = new MessageToByteEncoder<String>(String.class) {
+            @Override
+            protected void encode(ChannelHandlerContext ctx, String msg, ByteBuffer out) {
+                out.put(msg.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        encoder.setAllocator(new UnpooledByteBufferAllocator());
+        pipeline.addLast(encoder);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventLoop.close().get(3, TimeUnit.SECONDS);
+    }
+
+    private class HeadHandler extends DefaultChannelDuplexHandler {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object o) {
+            var buf = ReleaseUtil.buffer(o);
+            written.add(buf != null ? StandardCharsets.UTF_8.decode(buf).toString() : String.valueOf(o));
+            promises.add(ctx.writePromise());
+            ReleaseUtil.release(o);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            written.add("flush");
+            promises.add(null);
+        }
+
+        @Override
+        public void writeAndFlush(ChannelHandlerContext ctx, Object o) {
+            this.write(ctx, o);
+            this.flush(ctx);
+        }
+    }
+
+    private void inEventLoop(Runnable r) throws Exception {
+        eventLoop.submitTask(() -> {
+            r.run();
+            return null;
+        }).get(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        var large = "x".repeat(3000);
+        inEventLoop(() -> {
+            pipeline.fireChannelWrite("a");
+            pipeline.fireChannelWrite("b");
+            pipeline.fireChannelFlush();
+            pipeline.fireChannelWrite("c");
+            // overflows the batch buffer
+            pipeline.fireChannelWrite(large);
+            pipeline.fireChannelWrite(1);
+            pipeline.fireChannelWriteAndFlush("d");
+        });
+        Assert.assertEquals(List.of("ab", "flush", "c", large, "1", "d", "flush"), written);
+    }
+
+    @Test
+    public void testPromise() throws Exception {
+        var promise = new WritePromise();
+        inEventLoop(() -> {
+            pipeline.fireChannelWrite("a");
+            pipeline.fireChannelWrite("b", promise);
+            pipeline.fireChannelWrite("c");
+        });
+        // the batch is written with the promise, and the next message waits for the flush
+        Assert.assertEquals(List.of("ab"), written);
+        Assert.assertSame(promise, promises.get(0));
+    }
+
+    @Test
+    public void testEncodeException() throws Exception {
+        pipeline = new DefaultChannelPipeline(new HeadHandler(), new DefaultChannelDuplexHandler(), null, eventLoop);
+        var encoder = new MessageToByteEncoder<String>(String.class) {
+            @Override
+            protected void encode(ChannelHandlerContext ctx, String msg, ByteBuffer out) {
+                out.put(msg.getBytes(StandardCharsets.UTF_8));
+                if (msg.equals("bad")) {
+                    throw new IllegalStateException("encode failed");
+                }
+            }
+        };
+        encoder.setAllocator(new UnpooledByteBufferAllocator());
+        pipeline.addLast(encoder);
+        inEventLoop(() -> {
+            pipeline.fireChannelWrite("a");
+            pipeline.fireChannelWrite("bad");
+            pipeline.fireChannelWrite("c");
+            pipeline.fireChannelFlush();
+        });
+        // the partial bytes of the failed message are dropped
+        Assert.assertEquals(List.of("ac", "flush"), written);
+    }
+}
@@ -3,13 +3,15 @@ package org.jaybill.jbio.http;
 import lombok.extern.slf4j.Slf4j;
 import org.jaybill.jbio.core.ChannelHandlerContext;
 import org.jaybill.jbio.core.DefaultChannelDuplexHandler;
+import org.jaybill.jbio.core.RefCountedByteBuffer;
+import org.jaybill.jbio.core.WritePromise;
+import org.jaybill.jbio.core.util.Pair;
 import org.jaybill.jbio.http.ex.HttpProtocolException;
 
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 @Slf4j
 public class HttpServerCodecHandler extends DefaultChannelDuplexHandler {
@@ -27,7 +29,7 @@ public class HttpServerCodecHandler extends DefaultChannelDuplexHandler {
     private HttpRequest decodingRequest;
     private HttpServerCodec codec;
     private final Queue<Integer> requestIdQueue = new ArrayDeque<>();
-    private final Map<Integer, HttpResponse> waitForFlushResponseMap = new HashMap<>();
+    private final Map<Integer, Pair<HttpResponse, WritePromise>> waitForFlushResponseMap = new HashMap<>();
 
     public HttpServerCodecHandler() {
         this(DEFAULT_MAX_BODY_SIZE, DEFAULT_DECODE_TIMEOUT_SEC);
@@ -106,15 +108,16 @@ public class HttpServerCodecHandler extends DefaultChannelDuplexHandler {
 
     @Override
     public void write(ChannelHandlerContext ctx, Object o) {
-        doWrite(ctx, o, ctx::fireChannelWrite);
+        doWrite(ctx, o, false);
     }
 
     @Override
     public void writeAndFlush(ChannelHandlerContext ctx, Object o) {
-        doWrite(ctx, o, ctx::fireChannelWriteAndFlush);
+        doWrite(ctx, o, true);
     }
 
-    private void doWrite(ChannelHandlerContext ctx, Object o, Consumer<ByteBuffer> consumer) {
+    // the encoded buffer is released by the channel once it has been flushed
+    private void doWrite(ChannelHandlerContext ctx, Object o, boolean flush) {
         var resp = (HttpResponse) o;
         Integer id = resp.requestId();
 
@@ -122,28 +125,38 @@ public class HttpServerCodecHandler extends DefaultChannelDuplexHandler {
             // clear resource
             requestIdQueue.poll();
 
-            // encode and write
-            var buf = codec.encode(resp, ctx.channel().allocator());
-            consumer.accept(buf);
+            // encode and write, the promise of this write is passed along implicitly
+            var allocator = ctx.channel().allocator();
+            var buf = codec.encode(resp, allocator);
+            this.fireWrite(ctx, new RefCountedByteBuffer(buf, allocator), ctx.writePromise(), flush);
 
             // try to flush other request, support HTTP pipeline
             Integer peekId = requestIdQueue.peek();
-            var waitForFlushResp = peekId == null ? null : waitForFlushResponseMap.get(peekId);
-            while (waitForFlushResp != null) {
+            var waitForFlush = peekId == null ? null : waitForFlushResponseMap.get(peekId);
+            while (waitForFlush != null) {
                 // clear resource
                 requestIdQueue.poll();
-                waitForFlushResponseMap.remove(id);
+                waitForFlushResponseMap.remove(peekId);
 
-                // encode and write
-                var waitForFlushBuf = codec.encode(waitForFlushResp, ctx.channel().allocator());
-                consumer.accept(waitForFlushBuf);
+                // encode and write with the promise of its own write
+                var waitForFlushBuf = codec.encode(waitForFlush.left(), allocator);
+                this.fireWrite(ctx, new RefCountedByteBuffer(waitForFlushBuf, allocator), waitForFlush.right(), flush);
 
                 // next request
                 peekId = requestIdQueue.peek();
-                waitForFlushResp = peekId == null ? null : waitForFlushResponseMap.get(peekId);
+                waitForFlush = peekId == null ? null : waitForFlushResponseMap.get(peekId);
             }
         } else {
-            waitForFlushResponseMap.put(id, resp);
+            // keep the promise, the response is written later by the write of another response
+            waitForFlushResponseMap.put(id, Pair.of(resp, ctx.writePromise()));
+        }
+    }
+
+    private void fireWrite(ChannelHandlerContext ctx, Object msg, WritePromise promise, boolean flush) {
+        if (flush) {
+            ctx.fireChannelWriteAndFlush(msg, promise);
+        } else {
+            ctx.fireChannelWrite(msg, promise);
         }
     }
 }